@@ -0,0 +1,306 @@
+package com.neo.apt;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 编译期为带 {@code @ESQuery} 字段的查询条件类生成查询构造类
+ * <p>
+ * 类 Foo 生成同包下的 FooESQueryBuilder, 按字段直接生成 term/terms/range/match 子句, 不使用反射;
+ * 字段顺序和取值规则(为null或"-1"时忽略)与 ESQueryBuilder.setQueryBuilder 一致.
+ * TERMS 字段不是 Collection、RANGE 字段不是数组、字段无法读取时编译报错.
+ * 只处理本类声明了注解字段的类, 父类的注解字段一并生成
+ */
+@SupportedAnnotationTypes(ESQueryProcessor.ES_QUERY)
+public class ESQueryProcessor extends AbstractProcessor {
+
+    static final String ES_QUERY = "com.neo.util.ESQuery";
+
+    private static final String SUFFIX = "ESQueryBuilder";
+
+    //有这些注解时认为私有字段有lombok生成的getter
+    private static final List<String> LOMBOK_GETTERS = Arrays.asList("lombok.Data", "lombok.Getter", "lombok.Value");
+
+    private final Set<String> generated = new HashSet<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (TypeElement annotation : annotations) {
+            for (Element field : roundEnv.getElementsAnnotatedWith(annotation)) {
+                Element owner = field.getEnclosingElement();
+                if (owner instanceof TypeElement && generated.add(((TypeElement) owner).getQualifiedName().toString())) {
+                    generate((TypeElement) owner);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void generate(TypeElement type) {
+        for (Element current = type; current instanceof TypeElement; current = current.getEnclosingElement()) {
+            if (current.getModifiers().contains(Modifier.PRIVATE)) {
+                error(type, "@ESQuery class must not be private: " + type.getQualifiedName());
+                return;
+            }
+        }
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String criteriaType = processingEnv.getTypeUtils().erasure(type.asType()).toString();
+        String className = flatName(type) + SUFFIX;
+
+        StringBuilder body = new StringBuilder();
+        boolean valid = true;
+        int index = 0;
+        //子类字段在前
+        for (TypeElement current = type; current != null; current = superclass(current)) {
+            for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+                AnnotationMirror annotation = findAnnotation(field);
+                if (annotation != null) {
+                    valid &= clause(body, type, packageName, field, annotation, index++);
+                }
+            }
+        }
+        if (!valid) {
+            return;
+        }
+
+        StringBuilder source = new StringBuilder();
+        if (!packageName.isEmpty()) {
+            source.append("package ").append(packageName).append(";\n\n");
+        }
+        source.append("import com.neo.util.ESQueryBuilder;\n")
+                .append("import org.elasticsearch.index.query.QueryBuilder;\n")
+                .append("import org.elasticsearch.index.query.QueryBuilders;\n\n")
+                .append("import java.util.ArrayList;\n")
+                .append("import java.util.List;\n\n")
+                .append("/**\n")
+                .append(" * ").append(criteriaType).append(" 的查询构造, 由 ").append(ESQueryProcessor.class.getName()).append(" 生成, 不要修改\n")
+                .append(" */\n")
+                .append("@SuppressWarnings({\"rawtypes\", \"unchecked\"})\n")
+                .append("public final class ").append(className).append(" {\n\n")
+                .append("    private ").append(className).append("() {\n")
+                .append("    }\n\n")
+                .append("    /**\n")
+                .append("     * 条件对象中各字段对应的查询子句\n")
+                .append("     */\n")
+                .append("    public static List<QueryBuilder> clauses(").append(criteriaType).append(" criteria) {\n")
+                .append("        List<QueryBuilder> clauses = new ArrayList<>();\n")
+                .append(body)
+                .append("        return clauses;\n")
+                .append("    }\n\n")
+                .append("    /**\n")
+                .append("     * 以各字段条件作为must子句的查询构造\n")
+                .append("     */\n")
+                .append("    public static ESQueryBuilder of(").append(criteriaType).append(" criteria) {\n")
+                .append("        return new ESQueryBuilder().setQueryClauses(clauses(criteria));\n")
+                .append("    }\n")
+                .append("}\n");
+        String name = packageName.isEmpty() ? className : packageName + '.' + className;
+        try (Writer writer = processingEnv.getFiler().createSourceFile(name, type).openWriter()) {
+            writer.write(source.toString());
+        } catch (IOException e) {
+            error(type, "can not write " + name + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * 生成一个字段的查询子句
+     *
+     * @return 字段类型与查询方式不匹配或无法读取时返回false
+     */
+    private boolean clause(StringBuilder body, TypeElement type, String packageName, VariableElement field, AnnotationMirror annotation, int index) {
+        String key = stringValue(annotation, "key");
+        if (key == null || key.isEmpty()) {
+            key = field.getSimpleName().toString();
+        }
+        String queryType = stringValue(annotation, "type");
+        if (queryType == null) {
+            queryType = "TERM";
+        }
+        TypeMirror fieldType = processingEnv.getTypeUtils().erasure(field.asType());
+        if ("TERMS".equals(queryType) && !isCollection(fieldType)) {
+            error(field, "@ESQuery(type = TERMS) requires a java.util.Collection field, found " + fieldType);
+            return false;
+        }
+        if ("RANGE".equals(queryType) && fieldType.getKind() != TypeKind.ARRAY) {
+            error(field, "@ESQuery(type = RANGE) requires an array field, found " + fieldType);
+            return false;
+        }
+        String accessor = accessor(type, packageName, field);
+        if (accessor == null) {
+            error(field, "@ESQuery field " + field.getSimpleName() + " is private and has no accessible getter");
+            return false;
+        }
+        String value = "v" + index;
+        String literal = literal(key);
+        body.append("        ").append(fieldType).append(' ').append(value).append(" = ").append(accessor).append(";\n");
+        String indent = "        ";
+        if (!fieldType.getKind().isPrimitive()) {
+            body.append("        if (").append(value).append(" != null");
+            //只有可能是字符串的字段才需要判断"-1"
+            if (processingEnv.getTypeUtils().isAssignable(processingEnv.getElementUtils().getTypeElement("java.lang.String").asType(), fieldType)) {
+                body.append(" && !\"-1\".equals(").append(value).append(')');
+            }
+            body.append(") {\n");
+            indent = "            ";
+        }
+        switch (queryType) {
+            case "TERMS":
+                body.append(indent).append("clauses.add(QueryBuilders.termsQuery(").append(literal).append(", ").append(value).append("));\n");
+                break;
+            case "RANGE":
+                body.append(indent).append("clauses.add(").append(value).append(".length == 2\n")
+                        .append(indent).append("        ? QueryBuilders.rangeQuery(").append(literal).append(").from(").append(value).append("[0]).to(")
+                        .append(value).append("[1]).includeLower(true).includeUpper(false)\n")
+                        .append(indent).append("        : QueryBuilders.rangeQuery(").append(literal).append(").from(").append(value)
+                        .append(").to(null).includeLower(true).includeUpper(false));\n");
+                break;
+            case "MATCH":
+                body.append(indent).append("clauses.add(QueryBuilders.matchQuery(").append(literal).append(", (Object) ").append(value).append("));\n");
+                break;
+            default:
+                body.append(indent).append("clauses.add(QueryBuilders.termQuery(").append(literal).append(", (Object) ").append(value).append("));\n");
+                break;
+        }
+        if (!fieldType.getKind().isPrimitive()) {
+            body.append("        }\n");
+        }
+        return true;
+    }
+
+    /**
+     * 读取字段值的表达式, 无法读取时返回null
+     */
+    private String accessor(TypeElement type, String packageName, VariableElement field) {
+        TypeElement owner = (TypeElement) field.getEnclosingElement();
+        String name = field.getSimpleName().toString();
+        boolean isStatic = field.getModifiers().contains(Modifier.STATIC);
+        if (accessible(field, owner, packageName)) {
+            return isStatic ? processingEnv.getTypeUtils().erasure(owner.asType()) + "." + name : "criteria." + name;
+        }
+        String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        TypeMirror fieldType = processingEnv.getTypeUtils().erasure(field.asType());
+        for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            String methodName = method.getSimpleName().toString();
+            if ((methodName.equals("get" + capitalized) || methodName.equals("is" + capitalized))
+                    && method.getParameters().isEmpty()
+                    && !method.getModifiers().contains(Modifier.STATIC)
+                    && accessible(method, (TypeElement) method.getEnclosingElement(), packageName)
+                    && processingEnv.getTypeUtils().isSameType(processingEnv.getTypeUtils().erasure(method.getReturnType()), fieldType)) {
+                return "criteria." + methodName + "()";
+            }
+        }
+        //lombok的getter在注解处理时可能还不可见
+        if (!isStatic && (hasAnnotation(field, LOMBOK_GETTERS) || hasAnnotation(owner, LOMBOK_GETTERS))) {
+            if (fieldType.getKind() == TypeKind.BOOLEAN) {
+                return "criteria." + (name.startsWith("is") && name.length() > 2 && Character.isUpperCase(name.charAt(2)) ? name : "is" + capitalized) + "()";
+            }
+            return "criteria.get" + capitalized + "()";
+        }
+        return null;
+    }
+
+    /**
+     * 生成的类与条件类同包, 能否直接访问
+     */
+    private boolean accessible(Element member, TypeElement owner, String packageName) {
+        Set<Modifier> modifiers = member.getModifiers();
+        if (modifiers.contains(Modifier.PRIVATE)) {
+            return false;
+        }
+        if (modifiers.contains(Modifier.PUBLIC)) {
+            return true;
+        }
+        return processingEnv.getElementUtils().getPackageOf(owner).getQualifiedName().contentEquals(packageName);
+    }
+
+    private boolean isCollection(TypeMirror type) {
+        TypeElement collection = processingEnv.getElementUtils().getTypeElement("java.util.Collection");
+        return processingEnv.getTypeUtils().isAssignable(type, processingEnv.getTypeUtils().erasure(collection.asType()));
+    }
+
+    private TypeElement superclass(TypeElement type) {
+        TypeMirror superclass = type.getSuperclass();
+        if (superclass.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+        return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+    }
+
+    private static AnnotationMirror findAnnotation(Element element) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().contentEquals(ES_QUERY)) {
+                return mirror;
+            }
+        }
+        return null;
+    }
+
+    private static boolean hasAnnotation(Element element, List<String> names) {
+        for (AnnotationMirror mirror : element.getAnnotationMirrors()) {
+            if (names.contains(((TypeElement) mirror.getAnnotationType().asElement()).getQualifiedName().toString())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 注解属性值, 未设置时返回null(使用默认值); 枚举取常量名
+     */
+    private static String stringValue(AnnotationMirror annotation, String name) {
+        for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> entry : annotation.getElementValues().entrySet()) {
+            if (entry.getKey().getSimpleName().contentEquals(name)) {
+                Object value = entry.getValue().getValue();
+                return value instanceof VariableElement ? ((VariableElement) value).getSimpleName().toString() : value.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 嵌套类用下划线连接外部类名
+     */
+    private static String flatName(TypeElement type) {
+        List<String> names = new ArrayList<>();
+        for (Element current = type; current.getKind().isClass() || current.getKind().isInterface(); current = current.getEnclosingElement()) {
+            names.add(0, current.getSimpleName().toString());
+        }
+        return String.join("_", names);
+    }
+
+    private static String literal(String value) {
+        return '"' + value.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+    }
+
+    private void error(Element element, String message) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+    }
+}
@@ -1,15 +1,28 @@
 package com.neo.controller;
 
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+import com.alibaba.fastjson.JSONObject;
 import com.neo.model.Customer;
 import com.neo.service.CustomersInterface;
+import com.neo.util.ESCursorPage;
+import com.neo.util.ESSearchResult;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Page;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * describe:
@@ -25,22 +38,104 @@ public class EsController {
     @Autowired
     private CustomersInterface customersInterface;
 
+    //单次批量查询的最大查询数
+    @Value("${whale.history.es.msearch.max-searches:20}")
+    private int maxSearches = 20;
+
+    //单个查询 from + size 的上限
+    @Value("${whale.history.es.msearch.max-window:1000}")
+    private int maxWindow = 1000;
+
+    /**
+     * 以下列表接口均为游标分页: 下一页传入上一页返回的 nextCursor, total=true 时返回总数
+     */
     @RequestMapping("/es")
-    public Page<Customer> getResult() {
-        Page<Customer> customers = customersInterface.searchCustromer(0, 10, "");
-        return customers;
+    public ESCursorPage<Customer> getResult(@RequestParam(defaultValue = "10") Integer size,
+                                            @RequestParam(required = false) String cursor,
+                                            @RequestParam(defaultValue = "false") boolean total) {
+        return customersInterface.searchCustromer(size, cursor, total);
     }
 
     @RequestMapping(value = "/func", produces = "application/json;charset=UTF-8")
-    public Page<Customer> getFuncResult() {
-        Page<Customer> customers = customersInterface.searchCity(0, 10, "");
-        return customers;
+    public ESCursorPage<Customer> getFuncResult(@RequestParam(defaultValue = "10") Integer size,
+                                                @RequestParam(required = false) String cursor,
+                                                @RequestParam(defaultValue = "false") boolean total) {
+        return customersInterface.searchCity(size, cursor, total);
     }
 
     @RequestMapping("/sear")
-    public Page<Customer> sear() {
-        Page<Customer> customers = customersInterface.searchCustromer();
-        return customers;
+    public ESCursorPage<Customer> sear(@RequestParam(defaultValue = "10") Integer size,
+                                       @RequestParam(required = false) String cursor,
+                                       @RequestParam(defaultValue = "false") boolean total) {
+        return customersInterface.searchCustromerByAddress(size, cursor, total);
+    }
+
+    /**
+     * 批量查询, 请求体为ES查询DSL的JSON数组, 返回与之一一对应的结果;
+     * 限制查询数和 from + size, 不接受脚本, 请求体不合法时返回400
+     */
+    @PostMapping("/msearch")
+    public List<ESSearchResult> multiSearch(@RequestBody String body) {
+        JSONArray searches;
+        try {
+            searches = JSON.parseArray(body);
+        } catch (JSONException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search body must be a JSON array");
+        }
+        if (searches == null || searches.isEmpty() || searches.size() > maxSearches) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search count must be between 1 and " + maxSearches);
+        }
+        List<String> bodies = new ArrayList<>(searches.size());
+        for (int i = 0; i < searches.size(); i++) {
+            Object search = searches.get(i);
+            if (!(search instanceof JSONObject)) {
+                throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search " + i + " is not a JSON object");
+            }
+            checkSearch(i, (JSONObject) search);
+            bodies.add(JSON.toJSONString(search));
+        }
+        try {
+            return customersInterface.multiSearch(bodies);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    private void checkSearch(int i, JSONObject search) {
+        int from;
+        int size;
+        try {
+            from = search.containsKey("from") ? search.getIntValue("from") : 0;
+            size = search.containsKey("size") ? search.getIntValue("size") : 10;
+        } catch (RuntimeException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search " + i + " has invalid from or size");
+        }
+        if (from < 0 || size < 0 || (long) from + size > maxWindow) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search " + i + " from + size must be within " + maxWindow);
+        }
+        if (containsScript(search)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "search " + i + " must not contain scripts");
+        }
+    }
+
+    /**
+     * 任意层级出现 script、script_fields、script_score、scripted_metric、bucket_script 等字段
+     */
+    private static boolean containsScript(Object node) {
+        if (node instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) node).entrySet()) {
+                if (String.valueOf(entry.getKey()).contains("script") || containsScript(entry.getValue())) {
+                    return true;
+                }
+            }
+        } else if (node instanceof List) {
+            for (Object element : (List<?>) node) {
+                if (containsScript(element)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
     @RequestMapping("/update")
@@ -0,0 +1,48 @@
+package com.neo.controller;
+
+import com.neo.model.Customer;
+import com.neo.service.ReactiveCustomersInterface;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * describe: {@link EsController} 的响应式版本, 等待ES返回期间不占用请求线程
+ */
+@Slf4j
+@RestController
+@RequestMapping("/reactive")
+public class ReactiveEsController {
+
+    @Autowired
+    private ReactiveCustomersInterface reactiveCustomersInterface;
+
+    @RequestMapping("/es")
+    public Mono<Page<Customer>> getResult() {
+        return reactiveCustomersInterface.searchCustromer(0, 10, "");
+    }
+
+    @RequestMapping(value = "/func", produces = "application/json;charset=UTF-8")
+    public Mono<Page<Customer>> getFuncResult() {
+        return reactiveCustomersInterface.searchCity(0, 10, "");
+    }
+
+    @RequestMapping("/sear")
+    public Mono<Page<Customer>> sear() {
+        return reactiveCustomersInterface.searchCustromer();
+    }
+
+    @RequestMapping("/andOr")
+    public Flux<Customer> andOr() {
+        return reactiveCustomersInterface.searchCustromerAndOr();
+    }
+
+    @RequestMapping("/update")
+    public Mono<Boolean> update() {
+        return reactiveCustomersInterface.updateCustomer();
+    }
+}
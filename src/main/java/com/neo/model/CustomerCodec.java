@@ -0,0 +1,30 @@
+package com.neo.model;
+
+import com.neo.util.ESDocumentCodec;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * Customer 文档编码器
+ */
+public class CustomerCodec implements ESDocumentCodec<Customer> {
+
+    public static final CustomerCodec INSTANCE = new CustomerCodec();
+
+    @Override
+    public void write(Customer customer, XContentBuilder builder) throws IOException {
+        builder.startObject();
+        if (customer.getId() != null) {
+            builder.field("id", customer.getId());
+        }
+        if (customer.getUserName() != null) {
+            builder.field("userName", customer.getUserName());
+        }
+        if (customer.getAddress() != null) {
+            builder.field("address", customer.getAddress());
+        }
+        builder.field("age", customer.getAge());
+        builder.endObject();
+    }
+}
@@ -0,0 +1,29 @@
+package com.neo.model;
+
+import com.neo.util.ESQuery;
+import com.neo.util.ESQueryType;
+import lombok.Data;
+
+import java.util.Collection;
+
+/**
+ * 客户查询条件
+ * <p>
+ * 编译时生成 CustomerCriteriaESQueryBuilder, 为空的条件不参与查询
+ */
+@Data
+public class CustomerCriteria {
+
+    @ESQuery(key = "userName.keyword")
+    private String userName;
+
+    @ESQuery(type = ESQueryType.MATCH)
+    private String address;
+
+    //[from, to)
+    @ESQuery(key = "age", type = ESQueryType.RANGE)
+    private Integer[] ageRange;
+
+    @ESQuery(key = "_id", type = ESQueryType.TERMS)
+    private Collection<String> ids;
+}
@@ -0,0 +1,12 @@
+package com.neo.service;
+
+public interface CustomerLoadInterface {
+
+    /**
+     * 从NDJSON文件导入customer, 中断后再次调用从上次确认的位置继续
+     *
+     * @param path 文件路径
+     * @return 导入的文档数
+     */
+    long loadCustomers(String path) throws Exception;
+}
@@ -1,6 +1,8 @@
 package com.neo.service;
 
 import com.neo.model.Customer;
+import com.neo.util.ESCursorPage;
+import com.neo.util.ESSearchResult;
 import org.springframework.data.domain.Page;
 
 import java.io.IOException;
@@ -16,5 +18,19 @@ public interface CustomersInterface {
 
     List<Customer> searchCustromerAndOr();
 
+    /**
+     * 以下为游标分页查询, cursor为空查询第一页, withTotal为true时统计总数
+     */
+    ESCursorPage<Customer> searchCity(Integer pageSize, String cursor, boolean withTotal);
+
+    ESCursorPage<Customer> searchCustromer(Integer pageSize, String cursor, boolean withTotal);
+
+    ESCursorPage<Customer> searchCustromerByAddress(Integer pageSize, String cursor, boolean withTotal);
+
+    /**
+     * 批量查询, 每个元素为一个ES查询DSL, 合并为一次msearch
+     */
+    List<ESSearchResult> multiSearch(List<String> searches);
+
     boolean updateCustomer() throws Exception;
 }
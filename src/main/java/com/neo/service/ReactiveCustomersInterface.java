@@ -0,0 +1,22 @@
+package com.neo.service;
+
+import com.neo.model.Customer;
+import org.springframework.data.domain.Page;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link CustomersInterface} 的响应式版本, 基于非阻塞的 ReactiveElasticsearchClient
+ */
+public interface ReactiveCustomersInterface {
+
+    Mono<Page<Customer>> searchCity(Integer pageNumber, Integer pageSize, String searchContent);
+
+    Mono<Page<Customer>> searchCustromer();
+
+    Mono<Page<Customer>> searchCustromer(Integer pageNumber, Integer pageSize, String searchContent);
+
+    Flux<Customer> searchCustromerAndOr();
+
+    Mono<Boolean> updateCustomer();
+}
@@ -0,0 +1,75 @@
+package com.neo.service.impl;
+
+import com.neo.service.CustomerLoadInterface;
+import com.neo.util.ESHighLevelUtil;
+import com.neo.util.ESNdjsonLoader;
+import com.neo.util.ESUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.CommandLineRunner;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.nio.file.Paths;
+
+/**
+ * customer 批量导入
+ * 配置 whale.history.es.load.file 时在启动后自动导入该文件
+ */
+@Slf4j
+@Service
+public class CustomerLoadInterfaceImpl implements CustomerLoadInterface, CommandLineRunner {
+
+    private static final String INDEX = "customer";
+
+    private static final String TYPE = "customer";
+
+    @Value("${whale.history.es.rest.address:localhost:9200}")
+    private String restAddress;
+
+    @Value("${whale.history.es.load.file:}")
+    private String loadFile;
+
+    @Value("${whale.history.es.load.bulk-size-mb:5}")
+    private long bulkSizeMb;
+
+    @Value("${whale.history.es.load.pipeline-depth:4}")
+    private int pipelineDepth;
+
+    @Autowired
+    private ESUtil esUtil;
+
+    private ESHighLevelUtil esHighLevelUtil;
+
+    @PostConstruct
+    public void init() throws Exception {
+        esHighLevelUtil = new ESHighLevelUtil(restAddress.split(","), esUtil);
+    }
+
+    @Override
+    public long loadCustomers(String path) throws Exception {
+        ESNdjsonLoader loader = esHighLevelUtil.ndjsonLoader(INDEX, TYPE)
+                .setIdField("id")
+                .setMaxBulkBytes(bulkSizeMb * 1024 * 1024)
+                .setPipelineDepth(pipelineDepth);
+        long start = System.currentTimeMillis();
+        long count = loader.load(Paths.get(path));
+        log.info("load {} customers from {} in {}ms", count, path, System.currentTimeMillis() - start);
+        return count;
+    }
+
+    @Override
+    public void run(String... args) throws Exception {
+        if (StringUtils.isNotEmpty(loadFile)) {
+            loadCustomers(loadFile);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        esHighLevelUtil.close();
+    }
+}
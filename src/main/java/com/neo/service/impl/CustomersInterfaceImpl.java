@@ -4,16 +4,27 @@ import com.alibaba.fastjson.JSON;
 import com.neo.model.Customer;
 import com.neo.repository.CustomerRepository;
 import com.neo.service.CustomersInterface;
+import com.neo.util.ESConsistencyProperties;
+import com.neo.util.ESCursorPage;
 import com.neo.util.ESHighLevelUtil;
+import com.neo.util.ESNoopCache;
+import com.neo.util.ESProjection;
+import com.neo.util.ESQueryCache;
+import com.neo.util.ESSearchResult;
+import com.neo.util.ESSearchSpec;
+import com.neo.util.ESSingleFlight;
 import com.neo.util.ESUtil;
 import lombok.extern.slf4j.Slf4j;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.query.Operator;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
 import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.search.fetch.subphase.highlight.HighlightBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortBuilders;
 import org.elasticsearch.search.sort.SortOrder;
 import org.slf4j.Logger;
@@ -27,6 +38,8 @@ import org.springframework.data.elasticsearch.core.ElasticsearchTemplate;
 import org.springframework.data.elasticsearch.core.query.*;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
@@ -51,6 +64,15 @@ public class CustomersInterfaceImpl implements CustomersInterface {
     @Autowired
     private ESUtil es;
 
+    @Autowired
+    private ESConsistencyProperties consistencyProperties;
+
+    @Autowired
+    private ESNoopCache noopCache;
+
+    @Autowired
+    private ESSingleFlight singleFlight;
+
     @Override
     public Page<Customer> searchCity(Integer pageNumber, Integer pageSize, String searchContent) {
         // 分页参数
@@ -64,7 +86,7 @@ public class CustomersInterfaceImpl implements CustomersInterface {
                 .withPageable(PageRequest.of(pageNumber, pageSize))
                 .withQuery(functionScoreQueryBuilder).build();
         logger.info("\n searchCity(): searchContent [" + searchContent + "] \n DSL  = \n " + searchQuery.getQuery().toString());
-        Page<Customer> searchPageResults = customerRepository.search(searchQuery);
+        Page<Customer> searchPageResults = search(searchQuery);
         return searchPageResults;
     }
 
@@ -109,7 +131,7 @@ public class CustomersInterfaceImpl implements CustomersInterface {
                 .withSort(SortBuilders.fieldSort("age").order(SortOrder.DESC))
 //                .withPageable(PageRequest.of(1, 1))
                 .build();
-        Page<Customer> search1 = customerRepository.search(searchQuery1);
+        Page<Customer> search1 = search(searchQuery1);
         Customer customer = Customer.builder().address("西").build();
         IndexQuery index = new IndexQueryBuilder().withId("1").withObject(customer).build();
         return search1;
@@ -124,15 +146,90 @@ public class CustomersInterfaceImpl implements CustomersInterface {
                         .must(QueryBuilders.boolQuery().should(matchQuery("userName.keyword", "Bob"))
                                 .should(matchQuery("userName.keyword", "neo")))
         ).build();
-        List<Customer> content = customerRepository.search(searchQuery2).getContent();
+        List<Customer> content = search(searchQuery2).getContent();
         return content;
     }
 
+    @Override
+    public ESCursorPage<Customer> searchCity(Integer pageSize, String cursor, boolean withTotal) {
+        FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(
+                QueryBuilders.boolQuery().should(QueryBuilders.matchQuery("address", "西安")), ScoreFunctionBuilders.weightFactorFunction(1));
+        return searchAfter(functionScoreQueryBuilder, SortBuilders.scoreSort(), pageSize, cursor, withTotal);
+    }
+
+    @Override
+    public ESCursorPage<Customer> searchCustromer(Integer pageSize, String cursor, boolean withTotal) {
+        return searchAfter(QueryBuilders.boolQuery().must(rangeQuery("age").lt(30).includeUpper(false))
+                        .must(QueryBuilders.boolQuery()
+                                .should(matchQuery("address.keyword", "北京"))
+                                .should(matchQuery("address.keyword", "西安"))),
+                SortBuilders.fieldSort("age").order(SortOrder.DESC), pageSize, cursor, withTotal);
+    }
+
+    @Override
+    public ESCursorPage<Customer> searchCustromerByAddress(Integer pageSize, String cursor, boolean withTotal) {
+        //与 customerRepository.findByAddress 生成的查询一致
+        return searchAfter(QueryBuilders.queryStringQuery("北京").field("address").defaultOperator(Operator.AND),
+                SortBuilders.fieldSort("address.keyword").order(SortOrder.DESC), pageSize, cursor, withTotal);
+    }
+
+    @Override
+    public List<ESSearchResult> multiSearch(List<String> searches) {
+        List<ESSearchSpec> specs = new ArrayList<>(searches.size());
+        for (String search : searches) {
+            specs.add(ESSearchSpec.parse(INDEX, TYPE, search));
+        }
+        return es.multiSearch(specs);
+    }
+
+    /**
+     * 同时发起的相同查询只请求一次ES, 各调用方得到各自的副本
+     */
+    private Page<Customer> search(SearchQuery searchQuery) {
+        String key = "customerRepository|" + flightKey(searchQuery);
+        try {
+            return singleFlight.execute(key, () -> customerRepository.search(searchQuery))
+                    .map(customer -> new Customer(customer.getId(), customer.getUserName(), customer.getAddress(), customer.getAge()));
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 包含所有影响请求内容的部分, 只有完全相同的查询才合并
+     */
+    private static String flightKey(SearchQuery searchQuery) {
+        SourceFilter sourceFilter = searchQuery.getSourceFilter();
+        HighlightBuilder.Field[] highlightFields = searchQuery.getHighlightFields();
+        return ESQueryCache.canonical(searchQuery.getIndices(), searchQuery.getTypes(), searchQuery.getIds(),
+                searchQuery.getQuery(), searchQuery.getFilter(), searchQuery.getElasticsearchSorts(), searchQuery.getSort(),
+                searchQuery.getPageable(), searchQuery.getFields(),
+                sourceFilter == null ? null : Arrays.toString(sourceFilter.getIncludes()) + Arrays.toString(sourceFilter.getExcludes()),
+                searchQuery.getAggregations(), searchQuery.getHighlightBuilder(),
+                highlightFields == null ? null : Arrays.toString(highlightFields), searchQuery.getScriptFields(),
+                searchQuery.getIndicesBoost(), searchQuery.getCollapseBuilder(), searchQuery.getMinScore(), searchQuery.getTrackScores(),
+                searchQuery.getRoute(), searchQuery.getPreference(), searchQuery.getSearchType(), searchQuery.getIndicesOptions());
+    }
+
+    private ESCursorPage<Customer> searchAfter(QueryBuilder queryBuilder, SortBuilder<?> sortBuilder, Integer pageSize, String cursor, boolean withTotal) {
+        ESProjection<Customer> projection = ESProjection.of(Customer.class);
+        return es.searchAfter(INDEX, TYPE, queryBuilder, sortBuilder, projection.getIncludes(), pageSize, cursor, withTotal)
+                .map(projection::decode);
+    }
+
     @Override
     public boolean updateCustomer() throws Exception {
+        long stamp = noopCache.begin();
         Customer customer = customerRepository.findByUserName("summer");
         System.out.println(customer);
+        noopCache.record(INDEX, TYPE, customer.getId(), JSON.toJSONString(customer), stamp);
         customer.setAddress("秦皇岛`1");
+        String source = JSON.toJSONString(customer);
+        if (noopCache.isUnchanged(INDEX, TYPE, customer.getId(), source)) {
+            return true;
+        }
         //第一种
 //        es.update(INDEX, TYPE, customer.getId(), customer);
         //第二种
@@ -140,13 +237,15 @@ public class CustomersInterfaceImpl implements CustomersInterface {
 //        esHighLevelUtil.updateData(INDEX, TYPE, customer.getId(), customer);
         //第三种
         UpdateRequest updateRequest = new UpdateRequest();
-        updateRequest.doc(JSON.toJSONString(customer), XContentType.JSON).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+        updateRequest.doc(source, XContentType.JSON)
+                .setRefreshPolicy(consistencyProperties.resolve(INDEX).getRefreshPolicy());
         UpdateQuery updateQuery = new UpdateQuery();
         updateQuery.setId(customer.getId());
         updateQuery.setIndexName(INDEX);
         updateQuery.setType(TYPE);
         updateQuery.setUpdateRequest(updateRequest);
         GetResult getResult = elasticsearchTemplate.update(updateQuery).getGetResult();
+        es.invalidate(INDEX, TYPE, customer.getId());
         return true;
     }
 }
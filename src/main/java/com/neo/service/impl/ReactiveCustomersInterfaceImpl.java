@@ -0,0 +1,138 @@
+package com.neo.service.impl;
+
+import com.alibaba.fastjson.JSON;
+import com.neo.model.Customer;
+import com.neo.service.ReactiveCustomersInterface;
+import com.neo.util.ESConsistencyProperties;
+import com.neo.util.ESNoopCache;
+import com.neo.util.ESUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.ScoreFunctionBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.elasticsearch.core.ReactiveElasticsearchOperations;
+import org.springframework.data.elasticsearch.core.query.Criteria;
+import org.springframework.data.elasticsearch.core.query.CriteriaQuery;
+import org.springframework.data.elasticsearch.core.query.NativeSearchQueryBuilder;
+import org.springframework.data.elasticsearch.core.query.Query;
+import org.springframework.data.elasticsearch.core.query.SearchQuery;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.elasticsearch.index.query.QueryBuilders.matchQuery;
+import static org.elasticsearch.index.query.QueryBuilders.rangeQuery;
+
+@Slf4j
+@Service
+public class ReactiveCustomersInterfaceImpl implements ReactiveCustomersInterface {
+
+    private static final String INDEX = "customer";
+
+    private static final String TYPE = "customer";
+
+    @Autowired
+    private ReactiveElasticsearchOperations reactiveOperations;
+
+    @Autowired
+    private ESNoopCache noopCache;
+
+    @Autowired
+    private ESUtil es;
+
+    @Autowired
+    private ESConsistencyProperties consistencyProperties;
+
+    @Override
+    public Mono<Page<Customer>> searchCity(Integer pageNumber, Integer pageSize, String searchContent) {
+        FunctionScoreQueryBuilder functionScoreQueryBuilder = QueryBuilders.functionScoreQuery(
+                QueryBuilders.boolQuery().should(QueryBuilders.matchQuery("address", "西安")), ScoreFunctionBuilders.weightFactorFunction(1));
+        Pageable pageable = PageRequest.of(pageNumber, pageSize);
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withPageable(pageable)
+                .withQuery(functionScoreQueryBuilder).build();
+        log.info("searchCity(): searchContent [{}] DSL = {}", searchContent, searchQuery.getQuery());
+        return page(searchQuery, pageable);
+    }
+
+    @Override
+    public Mono<Page<Customer>> searchCustromer() {
+        Pageable pageable = PageRequest.of(0, 10, Sort.by(Sort.Direction.DESC, "address.keyword"));
+        CriteriaQuery query = new CriteriaQuery(new Criteria("address").is("北京"), pageable);
+        return page(query, pageable);
+    }
+
+    @Override
+    public Mono<Page<Customer>> searchCustromer(Integer pageNumber, Integer pageSize, String searchContent) {
+        log.info("es search param:{}", searchContent);
+        Pageable pageable = PageRequest.of(pageNumber, pageSize);
+        SearchQuery searchQuery = new NativeSearchQueryBuilder()
+                .withIndices(INDEX)
+                //termQuery需要加.keyword进行精确匹配
+                .withQuery(QueryBuilders.boolQuery().must(rangeQuery("age").lt(30).includeUpper(false))
+                        .must(QueryBuilders.boolQuery()
+                                .should(matchQuery("address.keyword", "北京"))
+                                .should(matchQuery("address.keyword", "西安")))
+                )
+                .withSort(SortBuilders.fieldSort("age").order(SortOrder.DESC))
+                .withPageable(pageable)
+                .build();
+        return page(searchQuery, pageable);
+    }
+
+    @Override
+    public Flux<Customer> searchCustromerAndOr() {
+        // a =1 and (b =1 or b=2) 查询
+        SearchQuery searchQuery = new NativeSearchQueryBuilder().withQuery(
+                QueryBuilders.boolQuery()
+                        .must(matchQuery("address.keyword", "北京"))
+                        .must(QueryBuilders.boolQuery().should(matchQuery("userName.keyword", "Bob"))
+                                .should(matchQuery("userName.keyword", "neo")))
+        ).build();
+        return reactiveOperations.find(searchQuery, Customer.class);
+    }
+
+    @Override
+    public Mono<Boolean> updateCustomer() {
+        CriteriaQuery query = new CriteriaQuery(new Criteria("userName").is("summer"), PageRequest.of(0, 1));
+        //序号须在读取前取得, 读取期间的写入会使本次记录失效
+        long stamp = noopCache.begin();
+        return reactiveOperations.find(query, Customer.class)
+                .next()
+                .flatMap(customer -> {
+                    noopCache.record(INDEX, TYPE, customer.getId(), JSON.toJSONString(customer), stamp);
+                    customer.setAddress("秦皇岛`1");
+                    String source = JSON.toJSONString(customer);
+                    if (noopCache.isUnchanged(INDEX, TYPE, customer.getId(), source)) {
+                        return Mono.just(true);
+                    }
+                    //局部更新, 与同步版本一致
+                    UpdateRequest updateRequest = new UpdateRequest(INDEX, TYPE, customer.getId())
+                            .doc(source, XContentType.JSON)
+                            .setRefreshPolicy(consistencyProperties.resolve(INDEX).getRefreshPolicy());
+                    return Mono.from(reactiveOperations.execute(client -> client.update(updateRequest)))
+                            .doOnNext(response -> es.invalidate(INDEX, TYPE, customer.getId()))
+                            .thenReturn(true);
+                })
+                .defaultIfEmpty(false);
+    }
+
+    /**
+     * 并发执行查询与计数, 组装为分页结果
+     */
+    private Mono<Page<Customer>> page(Query query, Pageable pageable) {
+        return reactiveOperations.find(query, Customer.class).collectList()
+                .zipWith(reactiveOperations.count(query, Customer.class))
+                .map(result -> new PageImpl<>(result.getT1(), pageable, result.getT2()));
+    }
+}
@@ -0,0 +1,412 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.ActionRequestBuilder;
+import org.elasticsearch.action.ActionResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryAction;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.histogram.InternalDateHistogram;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Elasticsearch异步工具类
+ * <p>
+ * 与 {@link ESUtil} 方法一一对应, 返回由 ActionListener 回调完成的 CompletableFuture, 等待期间不占用调用线程;
+ * 回调在ES传输线程上执行, 后续耗时处理应使用 thenXxxAsync 切换到业务线程池
+ */
+@Component
+public class ESAsyncUtil {
+
+    @Autowired
+    private ESUtil esUtil;
+
+    @Autowired
+    private ESConsistencyProperties consistencyProperties;
+
+    @Autowired
+    private ESNoopCache noopCache;
+
+    /**
+     * 执行请求并转换为CompletableFuture
+     */
+    static <Response extends ActionResponse> CompletableFuture<Response> execute(ActionRequestBuilder<?, Response, ?> builder) {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        builder.execute(ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future;
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    private TransportClient client() {
+        return esUtil.getClient();
+    }
+
+    /**
+     * 保存记录
+     */
+    public CompletableFuture<Void> insert(String index, String type, String id, Object object) {
+        return insert(index, type, id, object, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 保存记录
+     *
+     * @param mode 一致性模式
+     */
+    public CompletableFuture<Void> insert(String index, String type, String id, Object object, ESConsistency mode) {
+        JSONObject source = (JSONObject) JSONObject.toJSON(object);
+        IndexRequest indexRequest = new IndexRequest(index, type, id)
+                .setRefreshPolicy(mode.getRefreshPolicy())
+                .source(source);
+        long ticket = noopCache.beginWrite(index, type, id);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client().index(indexRequest, ActionListener.wrap(response -> {
+            esUtil.evictCached(index, type, id);
+            String json = source.toJSONString();
+            esUtil.getDocumentCache().put(index, type, id, json);
+            if (mode == ESConsistency.SESSION) {
+                esUtil.getSessionOverlay().put(index, type, id, source);
+            }
+            noopCache.completeWrite(index, type, id, json, ticket);
+            future.complete(null);
+        }, e -> {
+            //写入结果未知, 只清除缓存
+            esUtil.evict(index, type, id);
+            future.completeExceptionally(e);
+        }));
+        return future;
+    }
+
+    /**
+     * 插入数据
+     */
+    public CompletableFuture<Void> insertData(String index, String type, String _id, Map<String, ?> source) {
+        return execute(client().prepareIndex(index, type).setId(_id).setSource(source))
+                .thenAccept(response -> esUtil.evict(index, type, _id));
+    }
+
+    /**
+     * 更新数据
+     */
+    public CompletableFuture<Void> updateData(String index, String type, String _id, String field, boolean value) {
+        try {
+            return updateData(index, type, _id, jsonBuilder().startObject().field(field, value).endObject());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 更新数据
+     */
+    public CompletableFuture<Void> updateData(String index, String type, String _id, String[] fields, Object[] values) {
+        try {
+            XContentBuilder builder = jsonBuilder().startObject();
+            for (int i = 0; i < fields.length; i++) {
+                builder.field(fields[i], values[i]);
+            }
+            return updateData(index, type, _id, builder.endObject());
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    private CompletableFuture<Void> updateData(String index, String type, String _id, XContentBuilder doc) {
+        UpdateRequest updateRequest = new UpdateRequest(index, type, _id).doc(doc);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client().update(updateRequest, ActionListener.wrap(response -> {
+            esUtil.evict(index, type, _id);
+            future.complete(null);
+        }, future::completeExceptionally));
+        return future;
+    }
+
+    /**
+     * 更新数据
+     */
+    public CompletableFuture<Void> updateData(String index, String type, String _id, String source) {
+        return updateData(index, type, _id, source, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param mode 一致性模式
+     */
+    public CompletableFuture<Void> updateData(String index, String type, String _id, String source, ESConsistency mode) {
+        return updateData(index, type, _id, source, mode, -1);
+    }
+
+    /**
+     * @param noopTicket 见 {@link ESUtil#afterUpdate(String, String, String, String, ESConsistency, long)}
+     */
+    private CompletableFuture<Void> updateData(String index, String type, String _id, String source, ESConsistency mode, long noopTicket) {
+        UpdateRequest updateRequest = new UpdateRequest(index, type, _id)
+                .doc(source, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        client().update(updateRequest, ActionListener.wrap(response -> {
+            esUtil.afterUpdate(index, type, _id, source, mode, noopTicket);
+            future.complete(null);
+        }, future::completeExceptionally));
+        return future;
+    }
+
+    /**
+     * 更新记录
+     */
+    public CompletableFuture<Void> update(String index, String type, String id, Object object) {
+        return update(index, type, id, object, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新记录, 内容未变化时直接完成
+     *
+     * @param mode 一致性模式
+     */
+    public CompletableFuture<Void> update(String index, String type, String id, Object object, ESConsistency mode) {
+        String source = JSON.toJSONString(object);
+        if (noopCache.isUnchanged(index, type, id, source)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return updateData(index, type, id, source, mode, noopCache.beginWrite(index, type, id));
+    }
+
+    /**
+     * 删除数据
+     */
+    public CompletableFuture<Void> deleteData(String index, String type, String _id) {
+        return execute(client().prepareDelete(index, type, _id))
+                .thenAccept(response -> esUtil.evict(index, type, _id));
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param builder 过滤条件
+     */
+    public CompletableFuture<Long> deleteData(String index, String type, ESQueryBuilder builder) {
+        return deleteData(index, type, builder.listBuilders());
+    }
+
+    /**
+     * 删除数据
+     *
+     * @param queryBuilder 过滤条件
+     */
+    public CompletableFuture<Long> deleteData(String index, String type, QueryBuilder queryBuilder) {
+        CompletableFuture<BulkByScrollResponse> future = new CompletableFuture<>();
+        DeleteByQueryAction.INSTANCE.newRequestBuilder(client())
+                .filter(queryBuilder).source(index)
+                .execute(ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future.thenApply(response -> {
+            esUtil.evictIndex(index);
+            return response.getDeleted();
+        });
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param data (_id 主键, json 数据)
+     */
+    public CompletableFuture<Void> bulkInsertData(String index, String type, Map<String, Object> data) {
+        BulkRequestBuilder bulkRequest = client().prepareBulk();
+        data.forEach((param1, param2) -> bulkRequest.add(client().prepareIndex(index, type, param1).setSource(param2)));
+        return execute(bulkRequest)
+                .thenAccept(response -> data.keySet().forEach(_id -> esUtil.evict(index, type, _id)));
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param data 批量数据
+     */
+    public CompletableFuture<Void> bulkInsertData(String index, String type, List<Map<String, Object>> data) {
+        BulkRequestBuilder bulkRequest = client().prepareBulk();
+        data.forEach(item -> bulkRequest.add(client().prepareIndex(index, type).setSource(item)));
+        return execute(bulkRequest).thenAccept(response -> esUtil.evictQueries(index));
+    }
+
+    /**
+     * 查询
+     */
+    public CompletableFuture<String> searchById(String index, String type, String _id) {
+        Map<String, Object> recent = esUtil.getSessionOverlay().get(index, type, _id);
+        if (recent != null) {
+            return CompletableFuture.completedFuture(JSON.toJSONString(recent));
+        }
+        String cached = esUtil.getDocumentCache().get(index, type, _id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+        return getById(index, type, _id).thenApply(GetResponse::getSourceAsString);
+    }
+
+    /**
+     * 查询
+     */
+    public CompletableFuture<Map<String, Object>> searchMapById(String index, String type, String _id) {
+        Map<String, Object> recent = esUtil.getSessionOverlay().get(index, type, _id);
+        if (recent != null) {
+            return CompletableFuture.completedFuture(recent);
+        }
+        String cached = esUtil.getDocumentCache().get(index, type, _id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(JSON.parseObject(cached));
+        }
+        return getById(index, type, _id).thenApply(GetResponse::getSourceAsMap);
+    }
+
+    private CompletableFuture<GetResponse> getById(String index, String type, String _id) {
+        long stamp = esUtil.getDocumentCache().begin();
+        return execute(client().prepareGet(index, type, _id)).thenApply(response -> {
+            esUtil.recordRead(index, type, _id, response, stamp);
+            return response;
+        });
+    }
+
+    /**
+     * 查询
+     *
+     * @param builder 查询构造
+     */
+    public CompletableFuture<List<String>> search(String index, String type, ESQueryBuilder builder) {
+        try {
+            return execute(esUtil.createSearchRequestBuilder(index, type, builder).addSort(esUtil.createSortBuilder(builder)))
+                    .thenApply(ESUtil::sourcesOf);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 分页查询
+     */
+    public CompletableFuture<SearchResponse> searchResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder,
+                                                            Integer from, Integer size) {
+        return searchResponse(index, type, queryBuilder, sortBuilder, null, from, size);
+    }
+
+    /**
+     * 分页查询
+     */
+    public CompletableFuture<SearchResponse> searchResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder,
+                                                            String[] includes, Integer from, Integer size) {
+        return execute(esUtil.prepareSearchResponse(index, type, queryBuilder, sortBuilder, includes, from, size));
+    }
+
+    /**
+     * 滑动分页查询(prepare)
+     */
+    public CompletableFuture<SearchResponse> scrollSearchPrepare(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder,
+                                                                 Integer size, Long keepAlive) {
+        return execute(esUtil.prepareScrollSearch(index, type, queryBuilder, sortBuilder, size, keepAlive));
+    }
+
+    /**
+     * 滑动分页查询(do)
+     */
+    public CompletableFuture<SearchResponse> scrollSearch(String scrollId, Long keepAlive) {
+        return execute(client().prepareSearchScroll(scrollId).setScroll(new TimeValue(keepAlive)));
+    }
+
+    /**
+     * 聚合查询
+     */
+    public CompletableFuture<LinkedHashMap<String, Long>> searchAggResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder,
+                                                                            String groupBy, String script, Integer from, Integer size, Integer shardSize) {
+        return execute(esUtil.prepareAggSearch(index, type, queryBuilder, sortBuilder, groupBy, script, from, size, shardSize))
+                .thenApply(ESUtil::termsCountOf);
+    }
+
+    /**
+     * 时间分组统计
+     */
+    public CompletableFuture<Map<String, Long>> aggAlarmCountByDay(String index, String type, DateHistogramAggregationBuilder field, QueryBuilder builder) {
+        return execute(client().prepareSearch(index).setTypes(type).setQuery(builder).addAggregation(field).setSize(0))
+                .thenApply(ESUtil::histogramCountOf);
+    }
+
+    /**
+     * 查询
+     */
+    public CompletableFuture<List<String>> searchStr(String index, String type, QueryBuilder builder, FieldSortBuilder sortBuilder, Integer from, Integer size) {
+        return searchResponse(index, type, builder, sortBuilder, from, size).thenApply(ESUtil::sourcesOf);
+    }
+
+    /**
+     * 计数
+     */
+    public CompletableFuture<Long> statCount(String index, String type, ESQueryBuilder builder) {
+        return statCount(index, type, builder.listBuilders());
+    }
+
+    /**
+     * 计数
+     */
+    public CompletableFuture<Long> statCount(String index, String type, QueryBuilder builder) {
+        return count(index, type, builder, 0).thenApply(ESCount::getValue);
+    }
+
+    /**
+     * 计数, 不取回记录也不计算评分
+     *
+     * @param threshold 每个分片的计数上限, 小于等于0时精确统计
+     */
+    public CompletableFuture<ESCount> count(String index, String type, QueryBuilder builder, int threshold) {
+        return execute(esUtil.prepareCount(index, type, builder, threshold)).thenApply(ESCount::of);
+    }
+
+    /**
+     * 是否有命中记录
+     */
+    public CompletableFuture<Boolean> exists(String index, String type, QueryBuilder builder) {
+        return execute(esUtil.prepareExists(index, type, builder)).thenApply(ESUtil::existsOf);
+    }
+
+    /**
+     * 查询单条记录
+     */
+    public CompletableFuture<String> searchOne(String index, String type, ESQueryBuilder builder) {
+        try {
+            return execute(esUtil.createSearchRequestBuilder(index, type, builder).addSort(esUtil.createSortBuilder(builder)).setSize(1))
+                    .thenApply(ESUtil::firstSourceOf);
+        } catch (Exception e) {
+            return failed(e);
+        }
+    }
+
+    /**
+     * 日期分组统计
+     */
+    public CompletableFuture<List<InternalDateHistogram.Bucket>> aggByDateHistogram(String index, String type, QueryBuilder builder,
+                                                                                     ESQueryBuilder.DateHistogram dh) {
+        return execute(esUtil.prepareDateHistogram(index, type, builder, dh)).thenApply(ESUtil::dateBucketsOf);
+    }
+}
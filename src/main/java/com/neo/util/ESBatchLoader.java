@@ -0,0 +1,128 @@
+package com.neo.util;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * 批量加载器
+ * <p>
+ * 在一个时间窗口内(或达到最大批量时)到达的单条查询合并为一次批量查询, 再分别完成每个调用方的future;
+ * 同一窗口内相同的key只查询一次
+ *
+ * @param <K> 查询key
+ * @param <V> 单条结果
+ */
+public class ESBatchLoader<K, V> implements Closeable {
+
+    private final Function<List<K>, CompletableFuture<List<V>>> batchFunction;
+
+    private final long windowMillis;
+
+    private final int maxBatch;
+
+    private final ScheduledExecutorService scheduler;
+
+    //当前窗口内等待的查询
+    private Map<K, CompletableFuture<V>> pending = new LinkedHashMap<>();
+
+    private boolean closed;
+
+    /**
+     * @param name          线程名前缀
+     * @param batchFunction 批量查询, 返回结果与key一一对应且顺序相同
+     * @param windowMillis  合并窗口
+     * @param maxBatch      单批最大条数
+     */
+    public ESBatchLoader(String name, Function<List<K>, CompletableFuture<List<V>>> batchFunction, long windowMillis, int maxBatch) {
+        this.batchFunction = batchFunction;
+        this.windowMillis = windowMillis;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(name + "-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * 加载单条数据, 关闭后返回的future以 {@link IllegalStateException} 失败
+     */
+    public CompletableFuture<V> load(K key) {
+        Map<K, CompletableFuture<V>> full = null;
+        CompletableFuture<V> future;
+        synchronized (this) {
+            if (closed) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(new IllegalStateException("batch loader closed"));
+                return future;
+            }
+            future = pending.get(key);
+            if (future != null) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            pending.put(key, future);
+            if (pending.size() == 1) {
+                scheduler.schedule(this::dispatchPending, windowMillis, TimeUnit.MILLISECONDS);
+            }
+            if (pending.size() >= maxBatch) {
+                full = pending;
+                pending = new LinkedHashMap<>();
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    private void dispatchPending() {
+        Map<K, CompletableFuture<V>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Map<K, CompletableFuture<V>> batch) {
+        List<K> keys = new ArrayList<>(batch.keySet());
+        CompletableFuture<List<V>> results;
+        try {
+            results = batchFunction.apply(keys);
+        } catch (RuntimeException e) {
+            batch.values().forEach(future -> future.completeExceptionally(e));
+            return;
+        }
+        results.whenComplete((values, e) -> {
+            if (e != null) {
+                batch.values().forEach(future -> future.completeExceptionally(e));
+                return;
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                batch.get(keys.get(i)).complete(i < values.size() ? values.get(i) : null);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdown();
+        dispatchPending();
+    }
+}
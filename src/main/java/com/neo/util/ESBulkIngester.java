@@ -0,0 +1,179 @@
+package com.neo.util;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 异步批量写入管道
+ * <p>
+ * 调用方逐条提交文档, 按条数、字节数、时间间隔自动刷新,
+ * 并发中的bulk请求数达到上限时add会阻塞(背压), 被拒绝的bulk按指数退避重试
+ */
+@Component
+public class ESBulkIngester {
+    private static final Logger logger = LoggerFactory.getLogger(ESBulkIngester.class);
+
+    @Autowired
+    private ESUtil esUtil;
+
+    @Value("${whale.history.es.bulk.actions:1000}")
+    private int bulkActions = 1000;
+
+    @Value("${whale.history.es.bulk.size-mb:5}")
+    private long bulkSizeMb = 5;
+
+    @Value("${whale.history.es.bulk.flush-interval-ms:1000}")
+    private long flushIntervalMs = 1000;
+
+    @Value("${whale.history.es.bulk.concurrent-requests:2}")
+    private int concurrentRequests = 2;
+
+    @Value("${whale.history.es.bulk.backoff-delay-ms:100}")
+    private long backoffDelayMs = 100;
+
+    @Value("${whale.history.es.bulk.backoff-retries:5}")
+    private int backoffRetries = 5;
+
+    private BulkProcessor bulkProcessor;
+
+    private final AtomicLong succeeded = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    /**
+     * 初始化BulkProcessor
+     */
+    @PostConstruct
+    public void init() {
+        bulkProcessor = BulkProcessor.builder(esUtil.getClient()::bulk, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+                logger.debug("bulk [{}] start, actions:{}, bytes:{}", executionId, request.numberOfActions(), request.estimatedSizeInBytes());
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                int failures = 0;
+                for (BulkItemResponse item : response) {
+                    esUtil.evict(item.getIndex(), item.getType(), item.getId());
+                    if (item.isFailed()) {
+                        failures++;
+                        logger.warn("bulk [{}] item failed msg:{}", executionId, item.getFailureMessage());
+                    }
+                }
+                failed.addAndGet(failures);
+                succeeded.addAndGet(request.numberOfActions() - failures);
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                //请求可能已部分写入, 同样清除缓存
+                for (DocWriteRequest<?> item : request.requests()) {
+                    if (item.id() == null) {
+                        esUtil.evictIndex(item.index());
+                    } else {
+                        esUtil.evict(item.index(), item.type(), item.id());
+                    }
+                }
+                failed.addAndGet(request.numberOfActions());
+                logger.error("bulk [{}] request failed", executionId, failure);
+            }
+        })
+                .setBulkActions(bulkActions)
+                .setBulkSize(new ByteSizeValue(bulkSizeMb, ByteSizeUnit.MB))
+                .setFlushInterval(TimeValue.timeValueMillis(flushIntervalMs))
+                .setConcurrentRequests(concurrentRequests)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff(TimeValue.timeValueMillis(backoffDelayMs), backoffRetries))
+                .build();
+    }
+
+    /**
+     * 提交单条数据
+     *
+     * @param index  索引名
+     * @param type   类型
+     * @param _id    数据id, 为空时自动生成
+     * @param source 数据
+     */
+    public void add(String index, String type, String _id, Map<String, ?> source) {
+        bulkProcessor.add(new IndexRequest(index, type, _id).source(source));
+    }
+
+    /**
+     * 提交单条数据(自动生成id)
+     *
+     * @param index  索引名
+     * @param type   类型
+     * @param source 数据
+     */
+    public void add(String index, String type, Map<String, ?> source) {
+        add(index, type, null, source);
+    }
+
+    /**
+     * 提交删除
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param _id   数据id
+     */
+    public void delete(String index, String type, String _id) {
+        bulkProcessor.add(new DeleteRequest(index, type, _id));
+    }
+
+    /**
+     * 立即刷新缓冲区中的数据
+     */
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    /**
+     * 已成功写入的条数
+     */
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    /**
+     * 写入失败的条数
+     */
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 关闭管道, 等待缓冲区及进行中的bulk完成
+     */
+    @PreDestroy
+    public void close() {
+        try {
+            if (!bulkProcessor.awaitClose(30, TimeUnit.SECONDS)) {
+                logger.warn("bulk processor close timeout");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("bulk processor close interrupted", e);
+        }
+    }
+}
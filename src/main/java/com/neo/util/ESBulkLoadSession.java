@@ -0,0 +1,207 @@
+package com.neo.util;
+
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
+import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量导入会话
+ * <p>
+ * 打开时记录索引当前配置, 并设置 refresh_interval=-1、number_of_replicas=0、translog异步刷盘;
+ * 关闭时等待所有bulk完成, 恢复原配置, force merge 到指定段数并等待索引变为green.
+ * index 为别名时按其指向的各个实际索引分别记录和恢复配置
+ * <pre>
+ * try (ESBulkLoadSession session = esUtil.openBulkLoad("customer", "customer", 1)) {
+ *     session.add(id, source);
+ * }
+ * </pre>
+ */
+public class ESBulkLoadSession implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ESBulkLoadSession.class);
+
+    private static final String REFRESH_INTERVAL = "index.refresh_interval";
+
+    private static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+
+    private static final String TRANSLOG_DURABILITY = "index.translog.durability";
+
+    private static final int BULK_ACTIONS = 5000;
+
+    private static final int BULK_SIZE_MB = 10;
+
+    private static final int CONCURRENT_REQUESTS = 2;
+
+    private static final TimeValue GREEN_TIMEOUT = TimeValue.timeValueMinutes(30);
+
+    private final TransportClient client;
+
+    private final String index;
+
+    private final String type;
+
+    private final int maxNumSegments;
+
+    private final BulkProcessor bulkProcessor;
+
+    private final AtomicLong loaded = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    //导入完成后执行, 用于清除客户端缓存
+    private final Runnable afterLoad;
+
+    //实际索引名 -> 导入前的索引配置, 配置项不存在表示未显式设置
+    private final Map<String, Settings> origins = new LinkedHashMap<>();
+
+    /**
+     * @param client         es client
+     * @param index          索引名
+     * @param type           类型
+     * @param maxNumSegments 导入完成后force merge的目标段数, 小于1不合并
+     * @param afterLoad      导入完成后执行
+     */
+    ESBulkLoadSession(TransportClient client, String index, String type, int maxNumSegments, Runnable afterLoad) {
+        this.client = client;
+        this.index = index;
+        this.type = type;
+        this.maxNumSegments = maxNumSegments;
+        this.afterLoad = afterLoad;
+        prepareSettings();
+        this.bulkProcessor = BulkProcessor.builder(client::bulk, new BulkProcessor.Listener() {
+            @Override
+            public void beforeBulk(long executionId, BulkRequest request) {
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+                int failures = 0;
+                for (BulkItemResponse item : response) {
+                    if (item.isFailed()) {
+                        failures++;
+                        logger.warn("bulk load item failed msg:{}", item.getFailureMessage());
+                    }
+                }
+                failed.addAndGet(failures);
+                loaded.addAndGet(request.numberOfActions() - failures);
+            }
+
+            @Override
+            public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+                failed.addAndGet(request.numberOfActions());
+                logger.error("bulk load request failed", failure);
+            }
+        })
+                .setBulkActions(BULK_ACTIONS)
+                .setBulkSize(new ByteSizeValue(BULK_SIZE_MB, ByteSizeUnit.MB))
+                .setConcurrentRequests(CONCURRENT_REQUESTS)
+                .setBackoffPolicy(BackoffPolicy.exponentialBackoff())
+                .build();
+    }
+
+    /**
+     * 记录并修改索引配置
+     */
+    private void prepareSettings() {
+        //返回结果按实际索引名组织, 别名需要逐个记录
+        GetSettingsResponse response = client.admin().indices().prepareGetSettings(index)
+                .setNames(REFRESH_INTERVAL, NUMBER_OF_REPLICAS, TRANSLOG_DURABILITY)
+                .get();
+        for (ObjectObjectCursor<String, Settings> cursor : response.getIndexToSettings()) {
+            origins.put(cursor.key, cursor.value);
+            logger.info("bulk load {} start, {} origin settings refresh_interval:{}, replicas:{}, durability:{}", index, cursor.key,
+                    cursor.value.get(REFRESH_INTERVAL), cursor.value.get(NUMBER_OF_REPLICAS), cursor.value.get(TRANSLOG_DURABILITY));
+        }
+        client.admin().indices().prepareUpdateSettings(origins.keySet().toArray(new String[0]))
+                .setSettings(Settings.builder()
+                        .put(REFRESH_INTERVAL, "-1")
+                        .put(NUMBER_OF_REPLICAS, 0)
+                        .put(TRANSLOG_DURABILITY, "async"))
+                .get();
+    }
+
+    /**
+     * 导入数据
+     *
+     * @param _id    数据id, 为空时自动生成
+     * @param source 数据
+     */
+    public void add(String _id, Map<String, ?> source) {
+        bulkProcessor.add(new IndexRequest(index, type, _id).source(source));
+    }
+
+    public long getLoaded() {
+        return loaded.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * 结束导入并恢复索引配置
+     */
+    @Override
+    public void close() {
+        try {
+            try {
+                if (!bulkProcessor.awaitClose(10, TimeUnit.MINUTES)) {
+                    logger.warn("bulk load {} wait bulk timeout", index);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("bulk load {} interrupted", index, e);
+            } finally {
+                restoreSettings();
+            }
+            if (maxNumSegments > 0) {
+                client.admin().indices().prepareForceMerge(index).setMaxNumSegments(maxNumSegments).get();
+            }
+            client.admin().indices().prepareRefresh(index).get();
+        } finally {
+            //数据可能已部分写入, 出错时同样清除缓存
+            afterLoad.run();
+        }
+        ClusterHealthResponse health = client.admin().cluster().prepareHealth(index)
+                .setWaitForGreenStatus()
+                .setTimeout(GREEN_TIMEOUT)
+                .get();
+        logger.info("bulk load {} finished, loaded:{}, failed:{}, status:{}", index, loaded.get(), failed.get(), health.getStatus());
+    }
+
+    private void restoreSettings() {
+        for (Map.Entry<String, Settings> origin : origins.entrySet()) {
+            Settings.Builder settings = Settings.builder();
+            putOrReset(settings, REFRESH_INTERVAL, origin.getValue().get(REFRESH_INTERVAL));
+            putOrReset(settings, NUMBER_OF_REPLICAS, origin.getValue().get(NUMBER_OF_REPLICAS));
+            putOrReset(settings, TRANSLOG_DURABILITY, origin.getValue().get(TRANSLOG_DURABILITY));
+            client.admin().indices().prepareUpdateSettings(origin.getKey()).setSettings(settings).get();
+        }
+    }
+
+    private static void putOrReset(Settings.Builder settings, String key, String value) {
+        if (value == null) {
+            settings.putNull(key);
+        } else {
+            settings.put(key, value);
+        }
+    }
+}
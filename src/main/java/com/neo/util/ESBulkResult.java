@@ -0,0 +1,142 @@
+package com.neo.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 批量写入结果
+ * 统计写入条数、字节数、耗时、重试次数以及最终失败的数据
+ * 失败数据按在输入中的位置记录, id重复或为空时也能区分
+ */
+public class ESBulkResult {
+    private final AtomicLong total = new AtomicLong();
+
+    private final AtomicLong succeeded = new AtomicLong();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicLong retries = new AtomicLong();
+
+    //输入中的位置 -> 失败数据
+    private final Map<Integer, Failure> failures = new ConcurrentSkipListMap<>();
+
+    private volatile long tookMillis;
+
+    void addTotal(long count, long size) {
+        total.addAndGet(count);
+        bytes.addAndGet(size);
+    }
+
+    void addSucceeded(long count) {
+        succeeded.addAndGet(count);
+    }
+
+    void addRetries(long count) {
+        retries.addAndGet(count);
+    }
+
+    void addFailure(int position, String id, String message) {
+        failures.put(position, new Failure(position, id, message));
+    }
+
+    void setTookMillis(long tookMillis) {
+        this.tookMillis = tookMillis;
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getSucceeded() {
+        return succeeded.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    /**
+     * 最终失败的数据, 按在输入中的位置排序
+     */
+    public List<Failure> getFailures() {
+        return new ArrayList<>(failures.values());
+    }
+
+    public long getTookMillis() {
+        return tookMillis;
+    }
+
+    public boolean hasFailures() {
+        return !failures.isEmpty();
+    }
+
+    /**
+     * 每秒写入条数
+     */
+    public double getDocsPerSecond() {
+        return tookMillis == 0 ? succeeded.get() : succeeded.get() * 1000.0 / tookMillis;
+    }
+
+    /**
+     * 每秒写入字节数
+     */
+    public double getBytesPerSecond() {
+        return tookMillis == 0 ? bytes.get() : bytes.get() * 1000.0 / tookMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "ESBulkResult{" +
+                "total=" + total +
+                ", succeeded=" + succeeded +
+                ", failed=" + failures.size() +
+                ", bytes=" + bytes +
+                ", retries=" + retries +
+                ", tookMillis=" + tookMillis +
+                '}';
+    }
+
+    /**
+     * 写入失败的一条数据
+     */
+    public static class Failure {
+        private final int position;
+
+        private final String id;
+
+        private final String message;
+
+        Failure(int position, String id, String message) {
+            this.position = position;
+            this.id = id;
+            this.message = message;
+        }
+
+        /**
+         * 在输入数据中的位置(从0开始)
+         */
+        public int getPosition() {
+            return position;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "Failure{position=" + position + ", id=" + id + ", message=" + message + '}';
+        }
+    }
+}
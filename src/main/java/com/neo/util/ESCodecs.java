@@ -0,0 +1,170 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.annotation.JSONField;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 文档编码工具
+ */
+public final class ESCodecs {
+    //每个线程复用的输出缓冲
+    private static final ThreadLocal<BytesStreamOutput> BUFFER = ThreadLocal.withInitial(() -> new BytesStreamOutput(1024));
+
+    //按类缓存的getter编码器
+    private static final ClassValue<ESDocumentCodec<?>> BEAN_CODECS = new ClassValue<ESDocumentCodec<?>>() {
+        @Override
+        protected ESDocumentCodec<?> computeValue(Class<?> type) {
+            return new BeanCodec<>(type);
+        }
+    };
+
+    private ESCodecs() {
+    }
+
+    /**
+     * 获取按getter编码的通用编码器, 属性访问器按类只解析一次
+     * 与fastjson一致支持 {@link JSONField} 的 name 和 serialize, 不支持 format 等其他属性, 日期等类型按ES默认方式输出.
+     * 属性(包括集合、Map、数组的元素)是自定义实体时递归按getter编码, 不支持循环引用
+     *
+     * @param type 实体类型
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ESDocumentCodec<T> forClass(Class<T> type) {
+        return (ESDocumentCodec<T>) BEAN_CODECS.get(type);
+    }
+
+    /**
+     * 编码为JSON字节
+     *
+     * @param codec  编码器
+     * @param entity 实体
+     */
+    public static <T> byte[] encode(ESDocumentCodec<? super T> codec, T entity) throws IOException {
+        BytesStreamOutput out = BUFFER.get();
+        out.reset();
+        XContentBuilder builder = new XContentBuilder(JsonXContent.jsonXContent, out);
+        codec.write(entity, builder);
+        builder.flush();
+        return BytesReference.toBytes(out.bytes());
+    }
+
+    private static class BeanCodec<T> implements ESDocumentCodec<T> {
+        private final String[] names;
+
+        private final MethodHandle[] getters;
+
+        BeanCodec(Class<T> type) {
+            List<String> nameList = new ArrayList<>();
+            List<MethodHandle> getterList = new ArrayList<>();
+            try {
+                MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+                for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                    if (descriptor.getReadMethod() == null) {
+                        continue;
+                    }
+                    JSONField annotation = jsonField(type, descriptor);
+                    if (annotation != null && !annotation.serialize()) {
+                        continue;
+                    }
+                    nameList.add(annotation == null || annotation.name().isEmpty() ? descriptor.getName() : annotation.name());
+                    getterList.add(lookup.unreflect(descriptor.getReadMethod())
+                            .asType(MethodType.methodType(Object.class, Object.class)));
+                }
+            } catch (IntrospectionException | IllegalAccessException e) {
+                throw new IllegalArgumentException("can not create codec for " + type.getName(), e);
+            }
+            this.names = nameList.toArray(new String[0]);
+            this.getters = getterList.toArray(new MethodHandle[0]);
+        }
+
+        /**
+         * getter或同名字段上的 {@link JSONField}, getter优先
+         */
+        private static JSONField jsonField(Class<?> type, PropertyDescriptor descriptor) {
+            JSONField annotation = descriptor.getReadMethod().getAnnotation(JSONField.class);
+            for (Class<?> current = type; annotation == null && current != null && current != Object.class; current = current.getSuperclass()) {
+                try {
+                    annotation = current.getDeclaredField(descriptor.getName()).getAnnotation(JSONField.class);
+                } catch (NoSuchFieldException e) {
+                    //属性没有对应字段, 继续查找父类
+                }
+            }
+            return annotation;
+        }
+
+        @Override
+        public void write(T entity, XContentBuilder builder) throws IOException {
+            builder.startObject();
+            for (int i = 0; i < getters.length; i++) {
+                Object value;
+                try {
+                    value = getters[i].invokeExact((Object) entity);
+                } catch (Throwable e) {
+                    throw new IOException("read property " + names[i] + " failed", e);
+                }
+                if (value != null) {
+                    builder.field(names[i]);
+                    writeValue(value, builder);
+                }
+            }
+            builder.endObject();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void writeValue(Object value, XContentBuilder builder) throws IOException {
+        if (value == null) {
+            builder.nullValue();
+        } else if (value instanceof Map) {
+            builder.startObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                builder.field(String.valueOf(entry.getKey()));
+                writeValue(entry.getValue(), builder);
+            }
+            builder.endObject();
+        } else if (value instanceof Iterable) {
+            builder.startArray();
+            for (Object element : (Iterable<?>) value) {
+                writeValue(element, builder);
+            }
+            builder.endArray();
+        } else if (value instanceof Object[]) {
+            builder.startArray();
+            for (Object element : (Object[]) value) {
+                writeValue(element, builder);
+            }
+            builder.endArray();
+        } else if (isBean(value.getClass())) {
+            ((ESDocumentCodec<Object>) forClass(value.getClass())).write(value, builder);
+        } else {
+            //基本类型、字符串、日期、基本类型数组等由XContentBuilder输出
+            builder.value(value);
+        }
+    }
+
+    /**
+     * 自定义实体: 不是JDK类型、枚举、数组或自身可输出的类型
+     */
+    private static boolean isBean(Class<?> type) {
+        if (type.isArray() || Enum.class.isAssignableFrom(type) || ToXContent.class.isAssignableFrom(type)) {
+            return false;
+        }
+        String name = type.getName();
+        return !name.startsWith("java.") && !name.startsWith("javax.");
+    }
+}
@@ -0,0 +1,100 @@
+package com.neo.util;
+
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按列保存的一页 docvalue_fields 查询结果
+ * <p>
+ * 每个字段一列, 行号与命中顺序一致; 字段没有值时为null, 多值字段为List
+ */
+public class ESColumns {
+
+    private final String[] fields;
+
+    //字段名 -> 列号
+    private final Map<String, Integer> positions;
+
+    private final String[] ids;
+
+    //[列][行]
+    private final Object[][] columns;
+
+    public ESColumns(String[] fields, List<SearchHit> hits) {
+        this.fields = fields.clone();
+        this.positions = new HashMap<>(fields.length * 2);
+        for (int i = 0; i < fields.length; i++) {
+            positions.put(fields[i], i);
+        }
+        int size = hits.size();
+        this.ids = new String[size];
+        this.columns = new Object[fields.length][size];
+        for (int row = 0; row < size; row++) {
+            SearchHit hit = hits.get(row);
+            ids[row] = hit.getId();
+            for (int column = 0; column < fields.length; column++) {
+                columns[column][row] = valueOf(hit.field(fields[column]));
+            }
+        }
+    }
+
+    /**
+     * 单值取值本身, 多值取List, 没有值为null
+     */
+    static Object valueOf(DocumentField field) {
+        if (field == null || field.getValues().isEmpty()) {
+            return null;
+        }
+        List<Object> values = field.getValues();
+        return values.size() == 1 ? values.get(0) : values;
+    }
+
+    public String[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * 行数
+     */
+    public int getSize() {
+        return ids.length;
+    }
+
+    public boolean isEmpty() {
+        return ids.length == 0;
+    }
+
+    public String getId(int row) {
+        return ids[row];
+    }
+
+    /**
+     * 字段的整列取值, 只读
+     */
+    public List<Object> getColumn(String field) {
+        return Collections.unmodifiableList(Arrays.asList(columns[position(field)]));
+    }
+
+    public Object getValue(String field, int row) {
+        return columns[position(field)][row];
+    }
+
+    public String getString(String field, int row) {
+        Object value = getValue(field, row);
+        return value == null ? null : value.toString();
+    }
+
+    private int position(String field) {
+        Integer position = positions.get(field);
+        if (position == null) {
+            throw new IllegalArgumentException("field not requested: " + field);
+        }
+        return position;
+    }
+}
@@ -0,0 +1,35 @@
+package com.neo.util;
+
+import org.elasticsearch.action.support.WriteRequest;
+
+/**
+ * ES写入一致性模式
+ */
+public enum ESConsistency {
+    /**
+     * 不刷新, 按索引的refresh_interval可见
+     */
+    NONE(WriteRequest.RefreshPolicy.NONE),
+    /**
+     * 等待下一次定时刷新后返回, 不额外产生segment
+     */
+    WAIT_UNTIL(WriteRequest.RefreshPolicy.WAIT_UNTIL),
+    /**
+     * 写入后立即刷新, 每次写入都会产生新的segment
+     */
+    IMMEDIATE(WriteRequest.RefreshPolicy.IMMEDIATE),
+    /**
+     * 不刷新, 由客户端缓存最近写入的数据, 按id读取时优先返回
+     */
+    SESSION(WriteRequest.RefreshPolicy.NONE);
+
+    private final WriteRequest.RefreshPolicy refreshPolicy;
+
+    ESConsistency(WriteRequest.RefreshPolicy refreshPolicy) {
+        this.refreshPolicy = refreshPolicy;
+    }
+
+    public WriteRequest.RefreshPolicy getRefreshPolicy() {
+        return refreshPolicy;
+    }
+}
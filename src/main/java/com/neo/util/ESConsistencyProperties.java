@@ -0,0 +1,64 @@
+package com.neo.util;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 写入一致性配置
+ * <pre>
+ * whale.history.es.consistency:
+ *   default-mode: immediate
+ *   session-ttl-ms: 5000
+ *   indices:
+ *     customer: session
+ * </pre>
+ */
+@Component
+@ConfigurationProperties(prefix = "whale.history.es.consistency")
+public class ESConsistencyProperties {
+    //未单独配置的索引使用的模式
+    private ESConsistency defaultMode = ESConsistency.IMMEDIATE;
+
+    //索引名 -> 模式
+    private Map<String, ESConsistency> indices = new HashMap<>();
+
+    //session模式下客户端缓存写入数据的时长
+    private long sessionTtlMs = 5000;
+
+    /**
+     * 获取索引的默认模式
+     *
+     * @param index 索引名
+     */
+    public ESConsistency resolve(String index) {
+        ESConsistency mode = indices.get(index);
+        return mode == null ? defaultMode : mode;
+    }
+
+    public ESConsistency getDefaultMode() {
+        return defaultMode;
+    }
+
+    public void setDefaultMode(ESConsistency defaultMode) {
+        this.defaultMode = defaultMode;
+    }
+
+    public Map<String, ESConsistency> getIndices() {
+        return indices;
+    }
+
+    public void setIndices(Map<String, ESConsistency> indices) {
+        this.indices = indices;
+    }
+
+    public long getSessionTtlMs() {
+        return sessionTtlMs;
+    }
+
+    public void setSessionTtlMs(long sessionTtlMs) {
+        this.sessionTtlMs = sessionTtlMs;
+    }
+}
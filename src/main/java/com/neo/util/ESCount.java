@@ -0,0 +1,45 @@
+package com.neo.util;
+
+import org.elasticsearch.action.search.SearchResponse;
+
+/**
+ * 计数结果
+ * <p>
+ * 设置了统计上限且命中数达到上限时提前结束, 此时 {@link #getRelation()} 为 {@link ESCursorPage#GTE}, 实际数量不小于 value
+ */
+public class ESCount {
+
+    private final long value;
+
+    private final String relation;
+
+    public ESCount(long value, String relation) {
+        this.value = value;
+        this.relation = relation;
+    }
+
+    static ESCount of(SearchResponse response) {
+        return new ESCount(response.getHits().getTotalHits(),
+                Boolean.TRUE.equals(response.isTerminatedEarly()) ? ESCursorPage.GTE : ESCursorPage.EQ);
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    /**
+     * {@link ESCursorPage#EQ} 或 {@link ESCursorPage#GTE}
+     */
+    public String getRelation() {
+        return relation;
+    }
+
+    public boolean isExact() {
+        return ESCursorPage.EQ.equals(relation);
+    }
+
+    @Override
+    public String toString() {
+        return (isExact() ? "" : ">=") + value;
+    }
+}
@@ -0,0 +1,62 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONException;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * search_after 续页游标
+ * <p>
+ * 游标为上一页最后一条记录排序值的JSON数组经 base64url 编码, 对调用方不透明
+ */
+public final class ESCursor {
+
+    private ESCursor() {
+    }
+
+    /**
+     * 排序值编码为游标
+     */
+    public static String encode(Object[] sortValues) {
+        if (sortValues == null || sortValues.length == 0) {
+            return null;
+        }
+        byte[] json = JSON.toJSONBytes(sortValues);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json);
+    }
+
+    /**
+     * 游标解码为排序值, 游标为空返回null
+     *
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static Object[] decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        JSONArray values;
+        try {
+            values = JSON.parseArray(new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor, e);
+        }
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor);
+        }
+        Object[] sortValues = values.toArray();
+        for (int i = 0; i < sortValues.length; i++) {
+            //search_after只接受基本类型
+            if (sortValues[i] instanceof BigDecimal) {
+                sortValues[i] = ((BigDecimal) sortValues[i]).doubleValue();
+            } else if (sortValues[i] instanceof BigInteger) {
+                sortValues[i] = ((BigInteger) sortValues[i]).longValue();
+            }
+        }
+        return sortValues;
+    }
+}
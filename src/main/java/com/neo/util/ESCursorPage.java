@@ -0,0 +1,72 @@
+package com.neo.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * 游标分页结果
+ * nextCursor 为空表示没有下一页; total 只在查询时要求统计总数才有值
+ */
+public class ESCursorPage<T> {
+    public static final String EQ = "eq";
+
+    public static final String GTE = "gte";
+
+    private final List<T> content;
+
+    private final String nextCursor;
+
+    private final Long total;
+
+    //total是精确值(eq)还是下限(gte)
+    private final String totalRelation;
+
+    public ESCursorPage(List<T> content, String nextCursor) {
+        this(content, nextCursor, null, null);
+    }
+
+    public ESCursorPage(List<T> content, String nextCursor, Long total, String totalRelation) {
+        //结果可能被缓存共享, 不允许修改
+        this.content = Collections.unmodifiableList(new ArrayList<>(content));
+        this.nextCursor = nextCursor;
+        this.total = total;
+        this.totalRelation = totalRelation;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean isHasNext() {
+        return nextCursor != null;
+    }
+
+    public Long getTotal() {
+        return total;
+    }
+
+    public String getTotalRelation() {
+        return totalRelation;
+    }
+
+    public int getSize() {
+        return content.size();
+    }
+
+    /**
+     * 转换每条记录, 游标和总数不变
+     */
+    public <R> ESCursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        List<R> mapped = new ArrayList<>(content.size());
+        for (T item : content) {
+            mapped.add(mapper.apply(item));
+        }
+        return new ESCursorPage<>(mapped, nextCursor, total, totalRelation);
+    }
+}
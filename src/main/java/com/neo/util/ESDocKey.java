@@ -0,0 +1,54 @@
+package com.neo.util;
+
+import java.util.Objects;
+
+/**
+ * 文档定位 index/type/_id
+ */
+public final class ESDocKey {
+    private final String index;
+
+    private final String type;
+
+    private final String id;
+
+    public ESDocKey(String index, String type, String id) {
+        this.index = index;
+        this.type = type;
+        this.id = id;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ESDocKey)) {
+            return false;
+        }
+        ESDocKey other = (ESDocKey) o;
+        return index.equals(other.index) && Objects.equals(type, other.type) && id.equals(other.id);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(index, type, id);
+    }
+
+    @Override
+    public String toString() {
+        return index + '/' + type + '/' + id;
+    }
+}
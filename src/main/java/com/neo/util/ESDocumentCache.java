@@ -0,0 +1,138 @@
+package com.neo.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按id读取的文档近端缓存
+ * <p>
+ * 缓存 index/type/_id 对应的 _source, 所有写入路径写入后更新或清除对应的缓存.
+ * 读取未命中时先调用 {@link #begin()} 取得序号, 读取期间该文档被写入则不回填, 避免旧数据覆盖新数据
+ */
+@Component
+public class ESDocumentCache {
+
+    @Value("${whale.history.es.doc-cache.enabled:true}")
+    private boolean enabled = true;
+
+    //按 _source 字节数限制缓存大小, 小于等于0时按条数限制
+    @Value("${whale.history.es.doc-cache.max-weight-mb:64}")
+    private long maxWeightMb = 64;
+
+    @Value("${whale.history.es.doc-cache.max-size:10000}")
+    private long maxSize = 10000;
+
+    @Value("${whale.history.es.doc-cache.ttl-seconds:30}")
+    private long ttlSeconds = 30;
+
+    private Cache<String, String> sources;
+
+    //key(或索引前缀) -> 最后一次写入时的序号
+    private Cache<String, Long> writes;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats();
+        if (maxWeightMb > 0) {
+            builder.maximumWeight(maxWeightMb * 1024 * 1024)
+                    .<String, String>weigher((key, source) -> 2 * (key.length() + source.length()));
+        } else {
+            builder.maximumSize(maxSize);
+        }
+        sources = builder.build();
+        writes = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    public String get(String index, String type, String id) {
+        return enabled ? sources.getIfPresent(key(index, type, id)) : null;
+    }
+
+    /**
+     * 读取开始前调用, 返回值传给 {@link #fill}
+     */
+    public long begin() {
+        return sequence.get();
+    }
+
+    /**
+     * 读取后回填, 读取期间文档被写入则放弃
+     *
+     * @param stamp  {@link #begin()} 的返回值
+     * @param source 文档内容, 为空(文档不存在)不缓存
+     */
+    public void fill(String index, String type, String id, String source, long stamp) {
+        if (!enabled || id == null || source == null) {
+            return;
+        }
+        String key = key(index, type, id);
+        if (writtenSince(key, stamp) || writtenSince(index + '/', stamp)) {
+            return;
+        }
+        sources.put(key, source);
+    }
+
+    /**
+     * 写入完整文档后更新缓存
+     */
+    public void put(String index, String type, String id, String source) {
+        if (!enabled || id == null) {
+            return;
+        }
+        String key = key(index, type, id);
+        writes.put(key, sequence.incrementAndGet());
+        if (source == null) {
+            sources.invalidate(key);
+        } else {
+            sources.put(key, source);
+        }
+    }
+
+    /**
+     * 部分更新或删除后清除缓存
+     */
+    public void invalidate(String index, String type, String id) {
+        put(index, type, id, null);
+    }
+
+    /**
+     * 清除索引下的所有缓存(按条件删除等无法确定id的写入)
+     */
+    public void invalidateIndex(String index) {
+        String prefix = index + '/';
+        writes.put(prefix, sequence.incrementAndGet());
+        sources.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 命中、未命中、淘汰等统计
+     */
+    public CacheStats getStats() {
+        return sources.stats();
+    }
+
+    public long getSize() {
+        return sources.size();
+    }
+
+    private boolean writtenSince(String key, long stamp) {
+        Long written = writes.getIfPresent(key);
+        return written != null && written > stamp;
+    }
+
+    private static String key(String index, String type, String id) {
+        return index + '/' + type + '/' + id;
+    }
+}
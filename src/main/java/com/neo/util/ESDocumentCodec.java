@@ -0,0 +1,22 @@
+package com.neo.util;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import java.io.IOException;
+
+/**
+ * 文档编码器
+ * 将实体直接写入XContent, 避免先转成JSON字符串或Map再序列化
+ *
+ * @param <T> 实体类型
+ */
+public interface ESDocumentCodec<T> {
+
+    /**
+     * 写入实体, 实现需自行写入 startObject/endObject
+     *
+     * @param entity  实体
+     * @param builder 输出
+     */
+    void write(T entity, XContentBuilder builder) throws IOException;
+}
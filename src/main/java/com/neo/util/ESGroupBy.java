@@ -0,0 +1,168 @@
+package com.neo.util;
+
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.ObjectIntHashMap;
+import com.carrotsearch.hppc.cursors.IntCursor;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 分组去重累加器(key -> 成员集合)
+ * <p>
+ * key 和成员分别编码为连续的int, 相同字符串只保存一份; 每组成员保存为int集合, 读取时才解码为字符串.
+ * 非线程安全, 并发累加时每个线程各用一个实例, 结束后 {@link #merge} 合并
+ */
+public class ESGroupBy {
+
+    //字符串 -> 编码
+    private final ObjectIntHashMap<String> keyIds = new ObjectIntHashMap<>();
+
+    private final ObjectIntHashMap<String> memberIds = new ObjectIntHashMap<>();
+
+    //编码 -> 字符串
+    private final List<String> keys = new ArrayList<>();
+
+    private final List<String> members = new ArrayList<>();
+
+    //按key编码保存的成员编码集合
+    private final List<IntHashSet> groups = new ArrayList<>();
+
+    private long pairCount;
+
+    /**
+     * 累加一条记录, key 或成员为空时忽略
+     */
+    public void add(String key, String member) {
+        if (key == null || member == null) {
+            return;
+        }
+        add(encode(keyIds, keys, key), encode(memberIds, members, member));
+    }
+
+    private void add(int key, int member) {
+        //新key的编码等于当前组数
+        if (key == groups.size()) {
+            groups.add(new IntHashSet(4));
+        }
+        if (groups.get(key).add(member)) {
+            pairCount++;
+        }
+    }
+
+    private static int encode(ObjectIntHashMap<String> ids, List<String> values, String value) {
+        int index = ids.indexOf(value);
+        if (ids.indexExists(index)) {
+            return ids.indexGet(index);
+        }
+        int id = values.size();
+        ids.indexInsert(index, value, id);
+        values.add(value);
+        return id;
+    }
+
+    /**
+     * 合并另一个累加器的结果到当前实例
+     *
+     * @return 当前实例
+     */
+    public ESGroupBy merge(ESGroupBy other) {
+        //对方成员编码 -> 本方成员编码
+        int[] memberMapping = new int[other.members.size()];
+        for (int i = 0; i < memberMapping.length; i++) {
+            memberMapping[i] = encode(memberIds, members, other.members.get(i));
+        }
+        for (int i = 0; i < other.groups.size(); i++) {
+            int key = encode(keyIds, keys, other.keys.get(i));
+            for (IntCursor member : other.groups.get(i)) {
+                add(key, memberMapping[member.value]);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * key 数量
+     */
+    public int getGroupCount() {
+        return keys.size();
+    }
+
+    /**
+     * 去重后的 (key, 成员) 数量
+     */
+    public long getPairCount() {
+        return pairCount;
+    }
+
+    /**
+     * 所有key, 按首次出现的顺序
+     */
+    public List<String> getKeys() {
+        return Collections.unmodifiableList(keys);
+    }
+
+    public boolean containsKey(String key) {
+        return keyIds.containsKey(key);
+    }
+
+    /**
+     * key 下的成员数量, key 不存在时为0
+     */
+    public int count(String key) {
+        IntHashSet group = group(key);
+        return group == null ? 0 : group.size();
+    }
+
+    public boolean contains(String key, String member) {
+        IntHashSet group = group(key);
+        return group != null && memberIds.containsKey(member) && group.contains(memberIds.get(member));
+    }
+
+    /**
+     * key 下的成员, 只读视图, 遍历时解码; key 不存在时为空集合
+     */
+    public Set<String> getMembers(String key) {
+        IntHashSet group = group(key);
+        if (group == null) {
+            return Collections.emptySet();
+        }
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<IntCursor> ids = group.iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return ids.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return members.get(ids.next().value);
+                    }
+                };
+            }
+
+            @Override
+            public boolean contains(Object member) {
+                return member instanceof String && memberIds.containsKey((String) member)
+                        && group.contains(memberIds.get((String) member));
+            }
+
+            @Override
+            public int size() {
+                return group.size();
+            }
+        };
+    }
+
+    private IntHashSet group(String key) {
+        int index = keyIds.indexOf(key);
+        return keyIds.indexExists(index) ? groups.get(keyIds.indexGet(index)) : null;
+    }
+}
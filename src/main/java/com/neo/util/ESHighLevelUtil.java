@@ -5,13 +5,16 @@ import com.alibaba.fastjson.JSONObject;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.http.HttpHost;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteRequest;
 import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequest;
 import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.get.GetRequest;
-import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.RequestOptions;
@@ -22,6 +25,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,9 +34,24 @@ import org.springframework.stereotype.Component;
 import javax.annotation.PostConstruct;
 import java.io.IOException;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * @author chenxiaojian
@@ -57,6 +76,45 @@ public class ESHighLevelUtil {
 
     private static final String HTTP_SCHEME = "http";
 
+    //单个bulk最大字节数
+    private static final long BULK_MAX_BYTES = 5 * 1024 * 1024;
+
+    //同时发送的bulk数
+    private static final int BULK_CONCURRENCY = 4;
+
+    //被拒绝条目的最大重试次数
+    private static final int BULK_MAX_RETRIES = 5;
+
+    //首次重试等待时间, 之后每次翻倍
+    private static final long BULK_BACKOFF_MILLIS = 100;
+
+    //按id查询的合并窗口
+    private static final long GET_BATCH_WINDOW_MILLIS = 2;
+
+    //单次mget最大条数
+    private static final int GET_BATCH_MAX_SIZE = 100;
+
+    //等待mget结果的超时时间
+    private static final long GET_TIMEOUT_MILLIS = 30000;
+
+    private ESConsistencyProperties consistencyProperties = new ESConsistencyProperties();
+
+    private ESSessionOverlay sessionOverlay = new ESSessionOverlay(consistencyProperties.getSessionTtlMs());
+
+    private ESDocumentCache documentCache;
+
+    //与ESUtil共用缓存时写入后同时清除ESUtil的各级缓存
+    private ESUtil esUtil;
+
+    private final ESBatchLoader<ESDocKey, MultiGetItemResponse> getLoader =
+            new ESBatchLoader<>("es-rest-mget", this::multiGet, GET_BATCH_WINDOW_MILLIS, GET_BATCH_MAX_SIZE);
+
+    private final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "es-bulk-retry");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     static {
         System.setProperty("es.set.netty.runtime.available.processors", "false");
     }
@@ -70,7 +128,22 @@ public class ESHighLevelUtil {
 ////        }
 //    }
 
+    /**
+     * 创建不与 {@link ESUtil} 共用缓存的实例.
+     * <p>
+     * 注意: 进程内同时使用 ESUtil 时不要用这个构造方法, 本实例的写入不会清除 ESUtil 的文档、查询结果和noop缓存,
+     * ESUtil 随后以旧内容更新会被判为无变化而跳过, 造成写入丢失; 应使用 {@link #ESHighLevelUtil(String[], ESUtil)}
+     */
     public ESHighLevelUtil(String[]  ipAddress) throws Exception {
+        this(ipAddress, null);
+    }
+
+    /**
+     * 创建与 {@link ESUtil} 共用缓存的实例, 见 {@link #shareCaches(ESUtil)}
+     *
+     * @param esUtil 为空时不共用缓存
+     */
+    public ESHighLevelUtil(String[] ipAddress, ESUtil esUtil) throws Exception {
         if (restHighLevelClient == null) {
             HttpHost[] hosts = Arrays.stream(ipAddress)
                     .map(this::makeHttpHost)
@@ -81,6 +154,29 @@ public class ESHighLevelUtil {
             restClientBuilder.setMaxRetryTimeoutMillis(MAX);
             restHighLevelClient = new RestHighLevelClient(restClientBuilder);
         }
+        if (esUtil != null) {
+            shareCaches(esUtil);
+        } else {
+            documentCache = new ESDocumentCache();
+            documentCache.init();
+            log.warn("ESHighLevelUtil created without ESUtil, writes will not evict ESUtil caches");
+        }
+    }
+
+    /**
+     * 与 {@link ESUtil} 共用文档缓存, 两边的写入都会清除对方的文档、查询结果和noop缓存
+     */
+    public void shareCaches(ESUtil esUtil) {
+        this.esUtil = esUtil;
+        this.documentCache = esUtil.getDocumentCache();
+    }
+
+    /**
+     * 设置写入一致性配置
+     */
+    public void setConsistencyProperties(ESConsistencyProperties consistencyProperties) {
+        this.consistencyProperties = consistencyProperties;
+        this.sessionOverlay = new ESSessionOverlay(consistencyProperties.getSessionTtlMs());
     }
 
     private HttpHost makeHttpHost(String s) {
@@ -96,37 +192,196 @@ public class ESHighLevelUtil {
     }
 
     public void insertData(String index, String type, String id, JSONObject source) {
-        IndexRequest indexRequest = new IndexRequest(index, type, id).source(source);
+        insertData(index, type, id, source, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 插入数据
+     *
+     * @param mode 一致性模式, session模式下记录完整文档供后续读取
+     */
+    public void insertData(String index, String type, String id, JSONObject source, ESConsistency mode) {
+        IndexRequest indexRequest = new IndexRequest(index, type, id).source(source)
+                .setRefreshPolicy(mode.getRefreshPolicy());
         try {
             restHighLevelClient.index(indexRequest, RequestOptions.DEFAULT);
+            evict(index, type, id);
+            documentCache.put(index, type, id, source.toJSONString());
+            if (mode == ESConsistency.SESSION) {
+                sessionOverlay.put(index, type, id, source);
+            }
         } catch (IOException e) {
             log.error("insert data failed", e);
         }
     }
 
-    public String searchById(String index, String type, String id) {
+    public <T> void insertData(String index, String type, String id, T entity, ESDocumentCodec<? super T> codec) {
+        insertData(index, type, id, entity, codec, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 插入数据
+     *
+     * @param codec 文档编码器
+     * @param mode  一致性模式, session模式下记录完整文档供后续读取
+     */
+    public <T> void insertData(String index, String type, String id, T entity, ESDocumentCodec<? super T> codec, ESConsistency mode) {
         try {
-            GetRequest getRequest = new GetRequest(index, type, id);
-            GetResponse getResponse = restHighLevelClient.get(getRequest, RequestOptions.DEFAULT);
-            return getResponse.getSourceAsString();
+            byte[] source = ESCodecs.encode(codec, entity);
+            IndexRequest indexRequest = new IndexRequest(index, type, id).source(source, XContentType.JSON)
+                    .setRefreshPolicy(mode.getRefreshPolicy());
+            restHighLevelClient.index(indexRequest, RequestOptions.DEFAULT);
+            evict(index, type, id);
+            String json = new String(source, StandardCharsets.UTF_8);
+            documentCache.put(index, type, id, json);
+            if (mode == ESConsistency.SESSION) {
+                sessionOverlay.put(index, type, id, JSON.parseObject(json));
+            }
         } catch (IOException e) {
-            log.error("get data failed", e);
+            log.error("insert data failed", e);
+        }
+    }
+
+    public String searchById(String index, String type, String id) {
+        Map<String, Object> recent = sessionOverlay.get(index, type, id);
+        if (recent != null) {
+            return JSON.toJSONString(recent);
+        }
+        String cached = documentCache.get(index, type, id);
+        if (cached != null) {
+            return cached;
+        }
+        try {
+            long stamp = documentCache.begin();
+            //合并窗口内的查询合并为一次mget
+            MultiGetItemResponse item = getLoader.load(new ESDocKey(index, type, id)).get(GET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            if (item.isFailed()) {
+                log.error("get data failed msg:{}", item.getFailure().getMessage());
+                return null;
+            }
+            documentCache.fill(index, type, id, item.getResponse().getSourceAsString(), stamp);
+            return item.getResponse().getSourceAsString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.error("get data interrupted", e);
+        } catch (ExecutionException e) {
+            log.error("get data failed", e.getCause());
+        } catch (TimeoutException e) {
+            log.error("get data timeout", e);
         }
         return null;
     }
 
+    /**
+     * 按id批量查询, 一次mget
+     *
+     * @return _id -> _source, 按传入顺序, 不存在或查询失败的id不返回
+     */
+    public Map<String, String> searchByIds(String index, String type, Collection<String> ids) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        List<ESDocKey> misses = new ArrayList<>();
+        for (String id : ids) {
+            Map<String, Object> recent = sessionOverlay.get(index, type, id);
+            String cached = recent != null ? JSON.toJSONString(recent) : documentCache.get(index, type, id);
+            //先占位保持顺序
+            sources.put(id, cached);
+            if (cached == null) {
+                misses.add(new ESDocKey(index, type, id));
+            }
+        }
+        if (!misses.isEmpty()) {
+            long stamp = documentCache.begin();
+            try {
+                for (MultiGetItemResponse item : multiGet(misses).get(GET_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    if (item.isFailed()) {
+                        log.error("get data failed, id:{} msg:{}", item.getId(), item.getFailure().getMessage());
+                        continue;
+                    }
+                    documentCache.fill(index, type, item.getId(), item.getResponse().getSourceAsString(), stamp);
+                    sources.put(item.getId(), item.getResponse().getSourceAsString());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.error("mget interrupted", e);
+            } catch (ExecutionException e) {
+                log.error("mget failed", e.getCause());
+            } catch (TimeoutException e) {
+                log.error("mget timeout", e);
+            }
+        }
+        sources.values().removeIf(Objects::isNull);
+        return sources;
+    }
+
+    private CompletableFuture<List<MultiGetItemResponse>> multiGet(List<ESDocKey> keys) {
+        MultiGetRequest request = new MultiGetRequest();
+        for (ESDocKey key : keys) {
+            request.add(key.getIndex(), key.getType(), key.getId());
+        }
+        CompletableFuture<MultiGetResponse> future = new CompletableFuture<>();
+        restHighLevelClient.mgetAsync(request, RequestOptions.DEFAULT, ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future.thenApply(response -> Arrays.asList(response.getResponses()));
+    }
+
     public String updateData(String index, String type, String id, Object data) {
+        return updateData(index, type, id, data, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param mode 一致性模式
+     */
+    public String updateData(String index, String type, String id, Object data, ESConsistency mode) {
         try {
-            String source = JSON.toJSONString(data);
+            String json = JSON.toJSONString(data);
             UpdateRequest updateRequest = new UpdateRequest(index, type, id)
-                    .doc(source, XContentType.JSON).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+                    .doc(json, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
             GetResult resp = restHighLevelClient.update(updateRequest, RequestOptions.DEFAULT).getGetResult();
+            //只有session模式合并时才需要解析
+            afterUpdate(index, type, id, mode == ESConsistency.SESSION ? JSON.parseObject(json) : null, mode);
         } catch (IOException e) {
             log.error("get data failed", e);
         }
         return null;
     }
 
+    /**
+     * 局部更新成功后清除缓存; session模式下已有完整文档时合并更新内容后重新放回
+     */
+    private void afterUpdate(String index, String type, String id, Map<String, Object> source, ESConsistency mode) {
+        Map<String, Object> recent = mode == ESConsistency.SESSION ? sessionOverlay.get(index, type, id) : null;
+        evict(index, type, id);
+        if (recent != null) {
+            sessionOverlay.put(index, type, id, recent);
+            sessionOverlay.merge(index, type, id, source);
+        }
+    }
+
+    public <T> String updateData(String index, String type, String id, T data, ESDocumentCodec<? super T> codec) {
+        return updateData(index, type, id, data, codec, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param codec 文档编码器
+     * @param mode  一致性模式
+     */
+    public <T> String updateData(String index, String type, String id, T data, ESDocumentCodec<? super T> codec, ESConsistency mode) {
+        try {
+            byte[] source = ESCodecs.encode(codec, data);
+            UpdateRequest updateRequest = new UpdateRequest(index, type, id)
+                    .doc(source, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
+            restHighLevelClient.update(updateRequest, RequestOptions.DEFAULT);
+            //只有session模式合并时才需要解析
+            afterUpdate(index, type, id, mode == ESConsistency.SESSION ? JSON.parseObject(new String(source, StandardCharsets.UTF_8)) : null, mode);
+        } catch (IOException e) {
+            log.error("update data failed", e);
+        }
+        return null;
+    }
+
     /**
      * 批量插入数据
      *
@@ -134,23 +389,241 @@ public class ESHighLevelUtil {
      * @param type  类型
      * @param data  (_id 主键, json 数据)
      */
-    public void bulkInsertData(String index, String type, Map<String, Map<String, Object>> data) {
+    public ESBulkResult bulkInsertData(String index, String type, Map<String, Map<String, Object>> data) {
+        return bulkInsertData(index, type, data, BULK_MAX_BYTES, BULK_CONCURRENCY);
+    }
+
+    /**
+     * 批量插入数据
+     * 按序列化后的字节数拆分为多个bulk并发发送, 仅对被拒绝(429)的条目按指数退避重试
+     *
+     * @param index       索引名
+     * @param type        类型
+     * @param data        (_id 主键, json 数据)
+     * @param maxBytes    单个bulk最大字节数
+     * @param concurrency 同时发送的bulk数
+     */
+    public ESBulkResult bulkInsertData(String index, String type, Map<String, Map<String, Object>> data, long maxBytes, int concurrency) {
+        return bulkIndex(index, type, data, IndexRequest::source, maxBytes, concurrency);
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param data  (_id 主键, 实体)
+     * @param codec 文档编码器
+     */
+    public <T> ESBulkResult bulkInsertData(String index, String type, Map<String, T> data, ESDocumentCodec<? super T> codec) {
+        return bulkInsertData(index, type, data, codec, BULK_MAX_BYTES, BULK_CONCURRENCY);
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param index       索引名
+     * @param type        类型
+     * @param data        (_id 主键, 实体)
+     * @param codec       文档编码器
+     * @param maxBytes    单个bulk最大字节数
+     * @param concurrency 同时发送的bulk数
+     */
+    public <T> ESBulkResult bulkInsertData(String index, String type, Map<String, T> data, ESDocumentCodec<? super T> codec, long maxBytes, int concurrency) {
+        return bulkIndex(index, type, data, (request, entity) -> request.source(ESCodecs.encode(codec, entity), XContentType.JSON),
+                maxBytes, concurrency);
+    }
+
+    private <T> ESBulkResult bulkIndex(String index, String type, Map<String, T> data, SourceWriter<T> writer, long maxBytes, int concurrency) {
+        long start = System.currentTimeMillis();
+        ESBulkResult result = new ESBulkResult();
+        Semaphore permits = new Semaphore(concurrency);
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
         BulkRequest request = new BulkRequest();
-        data.forEach((id, source) -> {
-            request.add(new IndexRequest(index, type, id).source(source));
-        });
+        //request中各条目在data中的位置
+        int[] positions = new int[16];
+        int position = 0;
+        Iterator<Map.Entry<String, T>> entries = data.entrySet().iterator();
+        //已编码但还未加入request的条目
+        String current = null;
         try {
-            BulkResponse bulkResponse = restHighLevelClient.bulk(request, RequestOptions.DEFAULT);
-            for (BulkItemResponse bulkItemResponse : bulkResponse) {
-                if (bulkItemResponse.isFailed()) {
-                    BulkItemResponse.Failure failure = bulkItemResponse.getFailure();
-                    log.warn("bulk insert failed msg:{}", failure.toString());
+            while (entries.hasNext()) {
+                Map.Entry<String, T> entry = entries.next();
+                IndexRequest indexRequest = new IndexRequest(index, type, entry.getKey());
+                try {
+                    writer.write(indexRequest, entry.getValue());
+                } catch (IOException e) {
+                    result.addFailure(position++, entry.getKey(), e.getMessage());
                     continue;
                 }
+                current = entry.getKey();
+                sessionOverlay.invalidate(index, type, entry.getKey());
+                if (request.numberOfActions() > 0 && request.estimatedSizeInBytes() + indexRequest.source().length() > maxBytes) {
+                    futures.add(submitChunk(request, Arrays.copyOf(positions, request.numberOfActions()), result, permits));
+                    request = new BulkRequest();
+                }
+                if (request.numberOfActions() == positions.length) {
+                    positions = Arrays.copyOf(positions, positions.length * 2);
+                }
+                positions[request.numberOfActions()] = position++;
+                request.add(indexRequest);
+                current = null;
+            }
+            if (request.numberOfActions() > 0) {
+                futures.add(submitChunk(request, Arrays.copyOf(positions, request.numberOfActions()), result, permits));
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("bulk request interrupted, unsent items marked as failed", e);
+            //未发送的request、当前条目和剩余数据都记为失败
+            List<DocWriteRequest<?>> unsent = request.requests();
+            for (int i = 0; i < unsent.size(); i++) {
+                result.addFailure(positions[i], unsent.get(i).id(), "interrupted before sending");
+            }
+            if (current != null) {
+                result.addFailure(position++, current, "interrupted before sending");
+            }
+            while (entries.hasNext()) {
+                result.addFailure(position++, entries.next().getKey(), "interrupted before sending");
+            }
+        }
+        try {
+            //已发送的请求不响应中断, 等待其结果记入result后再返回
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            //失败条目已记入result
+            logger.error("bulk request failed", e.getCause());
+        }
+        data.keySet().forEach(id -> evict(index, type, id));
+        result.setTookMillis(System.currentTimeMillis() - start);
+        log.debug("bulk insert {}", result);
+        return result;
+    }
+
+    /**
+     * @param positions 各条目在输入数据中的位置
+     */
+    private CompletableFuture<Void> submitChunk(BulkRequest request, int[] positions, ESBulkResult result, Semaphore permits) throws InterruptedException {
+        permits.acquire();
+        result.addTotal(request.numberOfActions(), request.estimatedSizeInBytes());
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.whenComplete((v, e) -> permits.release());
+        sendBulk(request, positions, result, future, 0);
+        return future;
+    }
+
+    private void sendBulk(BulkRequest request, int[] positions, ESBulkResult result, CompletableFuture<Void> future, int attempt) {
+        try {
+            restHighLevelClient.bulkAsync(request, RequestOptions.DEFAULT, new ActionListener<BulkResponse>() {
+                @Override
+                public void onResponse(BulkResponse bulkResponse) {
+                    //已记为成功或失败的条目, 出错时只把其余条目记为失败
+                    BitSet recorded = new BitSet(request.numberOfActions());
+                    try {
+                        BulkRequest retry = new BulkRequest();
+                        int[] retryPositions = new int[request.numberOfActions()];
+                        List<DocWriteRequest<?>> requests = request.requests();
+                        for (BulkItemResponse item : bulkResponse) {
+                            if (!item.isFailed()) {
+                                result.addSucceeded(1);
+                                recorded.set(item.getItemId());
+                            } else if (item.getFailure().getStatus() == RestStatus.TOO_MANY_REQUESTS && attempt < BULK_MAX_RETRIES) {
+                                retryPositions[retry.numberOfActions()] = positions[item.getItemId()];
+                                retry.add(requests.get(item.getItemId()));
+                            } else {
+                                log.warn("bulk insert failed msg:{}", item.getFailureMessage());
+                                result.addFailure(positions[item.getItemId()], item.getId(), item.getFailureMessage());
+                                recorded.set(item.getItemId());
+                            }
+                        }
+                        if (retry.numberOfActions() > 0) {
+                            scheduleRetry(retry, Arrays.copyOf(retryPositions, retry.numberOfActions()), result, future, attempt);
+                        } else {
+                            future.complete(null);
+                        }
+                    } catch (Exception e) {
+                        fail(request, positions, recorded, result, future, e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    try {
+                        if (ExceptionsHelper.status(e) == RestStatus.TOO_MANY_REQUESTS && attempt < BULK_MAX_RETRIES) {
+                            scheduleRetry(request, positions, result, future, attempt);
+                            return;
+                        }
+                        logger.error("bulk request failed", e);
+                        List<DocWriteRequest<?>> requests = request.requests();
+                        for (int i = 0; i < requests.size(); i++) {
+                            result.addFailure(positions[i], requests.get(i).id(), e.getMessage());
+                        }
+                        future.complete(null);
+                    } catch (Exception ex) {
+                        fail(request, positions, new BitSet(), result, future, ex);
+                    }
+                }
+            });
         } catch (Exception e) {
-            logger.error("bulk request failed", e);
+            fail(request, positions, new BitSet(), result, future, e);
+        }
+    }
+
+    /**
+     * 重试调度或结果处理出错(如关闭后提交重试), 请求中尚未记录结果的条目记为失败, 避免等待方一直阻塞
+     *
+     * @param recorded 已记为成功或失败的条目
+     */
+    private void fail(BulkRequest request, int[] positions, BitSet recorded, ESBulkResult result, CompletableFuture<Void> future, Exception e) {
+        List<DocWriteRequest<?>> requests = request.requests();
+        for (int i = recorded.nextClearBit(0); i < requests.size(); i = recorded.nextClearBit(i + 1)) {
+            result.addFailure(positions[i], requests.get(i).id(), String.valueOf(e.getMessage()));
         }
+        future.completeExceptionally(e);
+    }
+
+    private void scheduleRetry(BulkRequest request, int[] positions, ESBulkResult result, CompletableFuture<Void> future, int attempt) {
+        long delay = BULK_BACKOFF_MILLIS << attempt;
+        result.addRetries(request.numberOfActions());
+        log.debug("bulk rejected, retry {} items after {}ms", request.numberOfActions(), delay);
+        retryScheduler.schedule(() -> sendBulk(request, positions, result, future, attempt + 1), delay, TimeUnit.MILLISECONDS);
+    }
+
+    public RestHighLevelClient getClient() {
+        return restHighLevelClient;
+    }
+
+    /**
+     * NDJSON导入, 导入结束(包括失败)后清除该索引的缓存
+     */
+    public ESNdjsonLoader ndjsonLoader(String index, String type) {
+        return new ESNdjsonLoader(restHighLevelClient.getLowLevelClient(), index, type)
+                .setAfterLoad(() -> evictIndex(index));
+    }
+
+    /**
+     * 写入后清除缓存
+     */
+    private void evict(String index, String type, String id) {
+        sessionOverlay.invalidate(index, type, id);
+        documentCache.invalidate(index, type, id);
+        if (esUtil != null) {
+            esUtil.evict(index, type, id);
+        }
+    }
+
+    private void evictIndex(String index) {
+        documentCache.invalidateIndex(index);
+        if (esUtil != null) {
+            esUtil.evictIndex(index);
+        }
+    }
+
+    /**
+     * 写入IndexRequest的source
+     */
+    private interface SourceWriter<T> {
+        void write(IndexRequest request, T value) throws IOException;
     }
 
     /**
@@ -161,8 +634,10 @@ public class ESHighLevelUtil {
             if (restHighLevelClient != null) {
                 synchronized (ESUtil.class) {
                     if (restHighLevelClient != null) {
+                        getLoader.close();
                         restHighLevelClient.close();
                         restHighLevelClient = null;
+                        retryScheduler.shutdownNow();
                     }
                 }
             }
@@ -0,0 +1,499 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * NDJSON文件批量导入
+ * <p>
+ * 按窗口内存映射文件, 按行切分直接拼成bulk请求体(不解析文档), 通过REST client异步流水线发送;
+ * 一个bulk中的条目全部确认后才推进偏移量, 被拒绝(429)等暂时失败的条目按指数退避重试, 其他失败结束导入;
+ * 已确认的连续偏移量写入 "文件名.checkpoint", 中断后再次导入从该偏移量继续, 全部完成后删除
+ */
+public class ESNdjsonLoader {
+    private static final Logger logger = LoggerFactory.getLogger(ESNdjsonLoader.class);
+
+    //单次映射的窗口大小
+    private static final long WINDOW_BYTES = 256L * 1024 * 1024;
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson", StandardCharsets.UTF_8);
+
+    private static final byte[] INDEX_ACTION = "{\"index\":{}}\n".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] INDEX_ACTION_ID_START = "{\"index\":{\"_id\":\"".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] INDEX_ACTION_ID_END = "\"}}\n".getBytes(StandardCharsets.UTF_8);
+
+    //被拒绝或暂时不可用条目的最大重试次数
+    private static final int MAX_RETRIES = 5;
+
+    //首次重试等待时间, 之后每次翻倍
+    private static final long BACKOFF_MILLIS = 100;
+
+    private final RestClient restClient;
+
+    private final String endpoint;
+
+    //单个bulk请求体最大字节数
+    private long maxBulkBytes = 5 * 1024 * 1024;
+
+    //同时在途的bulk请求数
+    private int pipelineDepth = 4;
+
+    //作为_id的顶层字段名, 为空或文档中没有该字段时由ES生成id(中断重试可能产生重复数据)
+    private byte[] idField;
+
+    //导入结束后执行, 如清除缓存
+    private Runnable afterLoad;
+
+    public ESNdjsonLoader(RestClient restClient, String index, String type) {
+        this.restClient = restClient;
+        this.endpoint = "/" + index + "/" + type + "/_bulk";
+    }
+
+    public ESNdjsonLoader setMaxBulkBytes(long maxBulkBytes) {
+        this.maxBulkBytes = maxBulkBytes;
+        return this;
+    }
+
+    public ESNdjsonLoader setPipelineDepth(int pipelineDepth) {
+        this.pipelineDepth = pipelineDepth;
+        return this;
+    }
+
+    public ESNdjsonLoader setAfterLoad(Runnable afterLoad) {
+        this.afterLoad = afterLoad;
+        return this;
+    }
+
+    public ESNdjsonLoader setIdField(String idField) {
+        this.idField = idField == null ? null : idField.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    /**
+     * 导入文件
+     *
+     * @param file NDJSON文件, 每行一个文档
+     * @return 本次发送的文档数
+     */
+    public long load(Path file) throws IOException, InterruptedException {
+        try {
+            return doLoad(file);
+        } finally {
+            //部分导入也已写入
+            if (afterLoad != null) {
+                afterLoad.run();
+            }
+        }
+    }
+
+    private long doLoad(Path file) throws IOException, InterruptedException {
+        Path checkpointFile = file.resolveSibling(file.getFileName() + ".checkpoint");
+        long start = readCheckpoint(checkpointFile);
+        LoadState state = new LoadState(new Checkpoint(checkpointFile, start), pipelineDepth);
+        Checkpoint checkpoint = state.checkpoint;
+        AtomicReference<Exception> failure = state.failure;
+        if (start > 0) {
+            logger.info("resume loading {} from offset {}", file, start);
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = start;
+            byte[] line = new byte[8192];
+            Body body = new Body(position);
+            while (position < size && failure.get() == null) {
+                long windowSize = Math.min(WINDOW_BYTES, size - position);
+                boolean last = position + windowSize == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                int lineStart = 0;
+                for (int i = 0; i <= windowSize && failure.get() == null; i++) {
+                    boolean end = i == windowSize;
+                    if (end && !last) {
+                        break;
+                    }
+                    if (!end && window.get(i) != '\n') {
+                        continue;
+                    }
+                    int length = i - lineStart;
+                    if (length > 0) {
+                        if (line.length < length) {
+                            line = new byte[Math.max(length, line.length * 2)];
+                        }
+                        window.position(lineStart);
+                        window.get(line, 0, length);
+                        body.append(line, length, idField);
+                    }
+                    lineStart = end ? i : i + 1;
+                    body.end = position + lineStart;
+                    if (body.size() >= maxBulkBytes) {
+                        send(body, state);
+                        body = new Body(body.end);
+                    }
+                }
+                if (lineStart == 0 && !last) {
+                    throw new IOException("line at offset " + position + " exceeds " + WINDOW_BYTES + " bytes");
+                }
+                position += lineStart;
+            }
+            if (body.docs > 0 && failure.get() == null) {
+                send(body, state);
+            }
+            state.inflight.acquire(pipelineDepth);
+        } finally {
+            state.scheduler.shutdownNow();
+        }
+        if (failure.get() != null) {
+            throw new IOException("load " + file + " interrupted at offset " + checkpoint.committed, failure.get());
+        }
+        Files.deleteIfExists(checkpointFile);
+        return state.sent.get();
+    }
+
+    private void send(Body body, LoadState state) throws InterruptedException {
+        state.inflight.acquire();
+        if (state.failure.get() != null) {
+            //等待期间之前的bulk已失败, 不再发送
+            state.inflight.release();
+            return;
+        }
+        int[] items = new int[body.docs];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = i;
+        }
+        post(body, body.buffer(), body.size(), items, 0, state);
+    }
+
+    /**
+     * 发送body中的部分条目, 全部确认后才推进checkpoint; 暂时失败的条目按指数退避重试, 其他失败结束导入
+     *
+     * @param items 本次发送的条目在body中的序号
+     */
+    private void post(Body body, byte[] data, int length, int[] items, int attempt, LoadState state) {
+        Request request = new Request("POST", endpoint);
+        request.setEntity(new ByteArrayEntity(data, 0, length, NDJSON));
+        restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                try {
+                    JSONObject result = JSON.parseObject(EntityUtils.toString(response.getEntity()));
+                    int[] retry = rejectedItems(body, items, result, attempt);
+                    if (retry.length == 0) {
+                        state.sent.addAndGet(body.docs);
+                        state.checkpoint.complete(body.start, body.end);
+                        state.inflight.release();
+                    } else {
+                        retry(body, retry, attempt, state);
+                    }
+                } catch (Exception e) {
+                    fail(body, e, state);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                if (e instanceof ResponseException && retryable(((ResponseException) e).getResponse().getStatusLine().getStatusCode())
+                        && attempt < MAX_RETRIES) {
+                    try {
+                        retry(body, items, attempt, state);
+                    } catch (Exception ex) {
+                        fail(body, ex, state);
+                    }
+                    return;
+                }
+                fail(body, e, state);
+            }
+        });
+    }
+
+    /**
+     * 需要重试的条目序号; 有不可重试的失败条目或重试次数用完时抛出异常
+     */
+    private static int[] rejectedItems(Body body, int[] items, JSONObject result, int attempt) throws IOException {
+        if (!result.getBooleanValue("errors")) {
+            return new int[0];
+        }
+        JSONArray responses = result.getJSONArray("items");
+        if (responses == null || responses.size() != items.length) {
+            throw new IOException("bulk [" + body.start + ", " + body.end + ") returned unexpected items");
+        }
+        int[] retry = new int[items.length];
+        int count = 0;
+        for (int i = 0; i < items.length; i++) {
+            //{"index":{"_id":..., "status":..., "error":...}}
+            JSONObject item = responses.getJSONObject(i).getJSONObject("index");
+            int status = item == null ? 500 : item.getIntValue("status");
+            if (status < 300) {
+                continue;
+            }
+            if (!retryable(status) || attempt >= MAX_RETRIES) {
+                throw new IOException("bulk [" + body.start + ", " + body.end + ") item " + items[i] + " failed, status "
+                        + status + ": " + (item == null ? null : item.get("error")));
+            }
+            retry[count++] = items[i];
+        }
+        return Arrays.copyOf(retry, count);
+    }
+
+    private void retry(Body body, int[] items, int attempt, LoadState state) {
+        if (state.failure.get() != null) {
+            //导入已失败, 不再重试
+            state.inflight.release();
+            return;
+        }
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        for (int item : items) {
+            body.writeItem(item, data);
+        }
+        long delay = BACKOFF_MILLIS << attempt;
+        logger.debug("bulk [{}, {}) retry {} items after {}ms", body.start, body.end, items.length, delay);
+        state.scheduler.schedule(() -> post(body, data.toByteArray(), data.size(), items, attempt + 1, state), delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static void fail(Body body, Exception e, LoadState state) {
+        logger.error("bulk [{}, {}) failed", body.start, body.end, e);
+        state.failure.compareAndSet(null, e);
+        state.inflight.release();
+    }
+
+    private static boolean retryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static long readCheckpoint(Path checkpointFile) throws IOException {
+        if (!Files.exists(checkpointFile)) {
+            return 0;
+        }
+        String value = new String(Files.readAllBytes(checkpointFile), StandardCharsets.UTF_8).trim();
+        return value.isEmpty() ? 0 : Long.parseLong(value);
+    }
+
+    /**
+     * 从文档行中查找顶层id字段值的区间 [from, to), 未找到或值为null、对象、数组时返回null
+     * 字符串值返回引号内的原始内容(保留转义), 可直接写入action行
+     *
+     * @param field 字段名
+     */
+    static int[] findId(byte[] line, int length, byte[] field) {
+        int depth = 0;
+        //顶层对象中下一个字符串是字段名
+        boolean expectKey = false;
+        for (int i = 0; i < length; i++) {
+            byte b = line[i];
+            if (b == '"') {
+                int end = stringEnd(line, i + 1, length);
+                if (end < 0) {
+                    return null;
+                }
+                if (depth == 1 && expectKey) {
+                    int p = skipSpace(line, end + 1, length);
+                    if (p >= length || line[p] != ':') {
+                        return null;
+                    }
+                    if (equals(line, i + 1, end, field)) {
+                        return value(line, skipSpace(line, p + 1, length), length);
+                    }
+                    expectKey = false;
+                    i = p;
+                } else {
+                    i = end;
+                }
+                continue;
+            }
+            if (b == '{' || b == '[') {
+                depth++;
+                expectKey = b == '{' && depth == 1;
+            } else if (b == '}' || b == ']') {
+                depth--;
+            } else if (b == ',' && depth == 1) {
+                expectKey = true;
+            }
+        }
+        return null;
+    }
+
+    private static int[] value(byte[] line, int p, int length) {
+        if (p >= length) {
+            return null;
+        }
+        if (line[p] == '"') {
+            int end = stringEnd(line, p + 1, length);
+            return end < 0 ? null : new int[]{p + 1, end};
+        }
+        int q = p;
+        while (q < length && line[q] != ',' && line[q] != '}' && line[q] != ' ' && line[q] != '\t' && line[q] != '\r') {
+            q++;
+        }
+        if (q == p || line[p] == '{' || line[p] == '[' || (q - p == 4 && line[p] == 'n')) {
+            return null;
+        }
+        return new int[]{p, q};
+    }
+
+    /**
+     * 字符串结束引号的位置, 跳过转义字符
+     */
+    private static int stringEnd(byte[] line, int from, int length) {
+        for (int q = from; q < length; q++) {
+            if (line[q] == '\\') {
+                q++;
+            } else if (line[q] == '"') {
+                return q;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean equals(byte[] line, int from, int to, byte[] field) {
+        if (to - from != field.length) {
+            return false;
+        }
+        for (int i = 0; i < field.length; i++) {
+            if (line[from + i] != field[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipSpace(byte[] line, int p, int length) {
+        while (p < length && (line[p] == ' ' || line[p] == '\t' || line[p] == '\r' || line[p] == '\n')) {
+            p++;
+        }
+        return p;
+    }
+
+    /**
+     * bulk请求体
+     */
+    private static class Body extends ByteArrayOutputStream {
+        //覆盖的文件区间 [start, end)
+        private final long start;
+
+        private long end;
+
+        private int docs;
+
+        //每个条目(action行+文档行)在buffer中的起始位置
+        private int[] offsets = new int[256];
+
+        Body(long start) {
+            super(64 * 1024);
+            this.start = start;
+            this.end = start;
+        }
+
+        void append(byte[] line, int length, byte[] idField) {
+            if (docs == offsets.length) {
+                offsets = Arrays.copyOf(offsets, docs * 2);
+            }
+            offsets[docs] = count;
+            int[] id = idField == null ? null : findId(line, length, idField);
+            if (id == null) {
+                write(INDEX_ACTION, 0, INDEX_ACTION.length);
+            } else {
+                write(INDEX_ACTION_ID_START, 0, INDEX_ACTION_ID_START.length);
+                write(line, id[0], id[1] - id[0]);
+                write(INDEX_ACTION_ID_END, 0, INDEX_ACTION_ID_END.length);
+            }
+            write(line, 0, length);
+            write('\n');
+            docs++;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        /**
+         * 写出第item个条目
+         */
+        void writeItem(int item, ByteArrayOutputStream out) {
+            int end = item + 1 < docs ? offsets[item + 1] : count;
+            out.write(buf, offsets[item], end - offsets[item]);
+        }
+    }
+
+    /**
+     * 一次导入的状态
+     */
+    private static class LoadState {
+        private final Checkpoint checkpoint;
+
+        //在途bulk数, 条目全部确认或导入失败时释放
+        private final Semaphore inflight;
+
+        private final AtomicReference<Exception> failure = new AtomicReference<>();
+
+        private final AtomicLong sent = new AtomicLong();
+
+        private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-ndjson-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        LoadState(Checkpoint checkpoint, int pipelineDepth) {
+            this.checkpoint = checkpoint;
+            this.inflight = new Semaphore(pipelineDepth);
+        }
+    }
+
+    /**
+     * 记录已确认的连续偏移量
+     */
+    private static class Checkpoint {
+        private final Path file;
+
+        private final Map<Long, Long> completed = new TreeMap<>();
+
+        private long committed;
+
+        Checkpoint(Path file, long committed) {
+            this.file = file;
+            this.committed = committed;
+        }
+
+        synchronized void complete(long start, long end) throws IOException {
+            completed.put(start, end);
+            boolean advanced = false;
+            Long next;
+            while ((next = completed.remove(committed)) != null) {
+                committed = next;
+                advanced = true;
+            }
+            if (advanced) {
+                Files.write(file, Long.toString(committed).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.neo.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * 文档内容摘要缓存, 用于跳过内容未变化的更新
+ * <p>
+ * 写入成功后记录发送内容(已序列化的JSON)的摘要, 更新前与缓存比较, 相同则说明本次更新不会改变文档.
+ * 按发送的字节比较, 同一文档以不同方式序列化(字段顺序不同等)时视为有变化.
+ * <p>
+ * 与 {@link ESDocumentCache} 一样按序号防止旧内容覆盖新内容: 写入前 {@link #beginWrite} 取得序号,
+ * 写入成功后 {@link #completeWrite} 只在期间没有其他写入或清除时记录; 读取方记录时使用 {@link #begin()} 的序号.
+ * <p>
+ * 经过 {@link ESUtil}/{@link ESAsyncUtil}/{@link ESUpdateBuffer}/{@link ESBulkIngester} 的写入,
+ * 以及 {@link ESUtil#openBulkLoad} 和 {@link ESHighLevelUtil} 共享缓存的写入会清除对应记录;
+ * 其他途径(Spring Data repository/template等)写入后需调用 {@link ESUtil#invalidate}, 否则在有效期内可能误判为无变化
+ */
+@Component
+public class ESNoopCache {
+
+    @Value("${whale.history.es.noop-cache.max-size:100000}")
+    private long maxSize = 100000;
+
+    @Value("${whale.history.es.noop-cache.ttl-minutes:10}")
+    private long ttlMinutes = 10;
+
+    private Cache<String, Long> hashes;
+
+    //key(或索引前缀) -> 最后一次开始写入或清除时的序号
+    private Cache<String, Long> writes;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final AtomicLong skipped = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        hashes = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+        writes = CacheBuilder.newBuilder()
+                .expireAfterWrite(ttlMinutes, TimeUnit.MINUTES)
+                .build();
+    }
+
+    /**
+     * 判断更新内容是否与缓存一致, 一致时计入跳过次数
+     *
+     * @param source 更新内容(JSON)
+     */
+    public boolean isUnchanged(String index, String type, String id, String source) {
+        return isUnchanged(index, type, id, hash(source));
+    }
+
+    /**
+     * @param source 更新内容(UTF-8编码的JSON)
+     */
+    public boolean isUnchanged(String index, String type, String id, byte[] source) {
+        return isUnchanged(index, type, id, Hashing.murmur3_128().hashBytes(source).asLong());
+    }
+
+    private boolean isUnchanged(String index, String type, String id, long hash) {
+        Long cached = hashes.getIfPresent(key(index, type, id));
+        if (cached != null && cached == hash) {
+            skipped.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 读取文档前调用, 返回值传给 {@link #record}
+     */
+    public long begin() {
+        return sequence.get();
+    }
+
+    /**
+     * 记录读取到的文档内容, 读取期间文档被写入或清除则放弃
+     *
+     * @param source 文档内容(JSON)
+     * @param stamp  读取前 {@link #begin()} 的返回值
+     */
+    public void record(String index, String type, String id, String source, long stamp) {
+        if (id == null || source == null) {
+            return;
+        }
+        String key = key(index, type, id);
+        put(key, hash(source), () -> writtenSince(key, stamp) || writtenSince(index + '/', stamp));
+    }
+
+    /**
+     * 写入前调用, 清除旧记录并返回本次写入的序号, 传给 {@link #completeWrite}
+     */
+    public long beginWrite(String index, String type, String id) {
+        return invalidate(key(index, type, id));
+    }
+
+    /**
+     * 写入成功后记录内容, 本次写入开始后同一文档有其他写入或清除时放弃(无法确定哪次写入在后)
+     *
+     * @param source 本次写入的内容(JSON)
+     * @param ticket {@link #beginWrite} 的返回值
+     */
+    public void completeWrite(String index, String type, String id, String source, long ticket) {
+        if (id == null || source == null) {
+            return;
+        }
+        String key = key(index, type, id);
+        put(key, hash(source), () -> !Objects.equals(writes.getIfPresent(key), ticket) || writtenSince(index + '/', ticket));
+    }
+
+    /**
+     * 先写入再检查序号, 与清除并发时不会留下旧内容
+     */
+    private void put(String key, long hash, BooleanSupplier stale) {
+        if (stale.getAsBoolean()) {
+            return;
+        }
+        hashes.put(key, hash);
+        if (stale.getAsBoolean()) {
+            hashes.asMap().remove(key, hash);
+        }
+    }
+
+    public void invalidate(String index, String type, String id) {
+        invalidate(key(index, type, id));
+    }
+
+    private long invalidate(String key) {
+        long stamp = sequence.incrementAndGet();
+        writes.put(key, stamp);
+        hashes.invalidate(key);
+        return stamp;
+    }
+
+    /**
+     * 清除索引下的所有记录
+     */
+    public void invalidateIndex(String index) {
+        String prefix = index + '/';
+        writes.put(prefix, sequence.incrementAndGet());
+        hashes.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+
+    /**
+     * 跳过的更新次数
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    private boolean writtenSince(String key, long stamp) {
+        Long written = writes.getIfPresent(key);
+        return written != null && written > stamp;
+    }
+
+    private static long hash(String source) {
+        //与 hashBytes(source.getBytes(UTF_8)) 结果相同
+        return Hashing.murmur3_128().hashString(source, StandardCharsets.UTF_8).asLong();
+    }
+
+    private static String key(String index, String type, String id) {
+        return index + '/' + type + '/' + id;
+    }
+}
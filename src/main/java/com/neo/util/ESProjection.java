@@ -0,0 +1,115 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.annotation.JSONField;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.springframework.data.annotation.Id;
+
+import java.beans.IntrospectionException;
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 查询结果投影
+ * <p>
+ * 按目标类的可写属性生成 _source includes, 只返回需要的字段, 并把命中记录直接解码为目标类型;
+ * 带 {@link Id} 注解的属性取 _id. 属性名可用 {@link JSONField#name()} 指定
+ *
+ * @param <T> 目标类型
+ */
+public final class ESProjection<T> {
+
+    //按类缓存
+    private static final ClassValue<ESProjection<?>> PROJECTIONS = new ClassValue<ESProjection<?>>() {
+        @Override
+        protected ESProjection<?> computeValue(Class<?> type) {
+            return new ESProjection<>(type);
+        }
+    };
+
+    private static final byte[] EMPTY_SOURCE = {'{', '}'};
+
+    private final Class<T> type;
+
+    private final String[] includes;
+
+    //_id 的setter, 没有时为null
+    private final MethodHandle idSetter;
+
+    private ESProjection(Class<T> type) {
+        this.type = type;
+        List<String> names = new ArrayList<>();
+        MethodHandle idHandle = null;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            for (PropertyDescriptor descriptor : Introspector.getBeanInfo(type, Object.class).getPropertyDescriptors()) {
+                if (descriptor.getWriteMethod() == null) {
+                    continue;
+                }
+                Field field = findField(type, descriptor.getName());
+                if (field != null && field.isAnnotationPresent(Id.class) && descriptor.getPropertyType() == String.class) {
+                    idHandle = lookup.unreflect(descriptor.getWriteMethod())
+                            .asType(MethodType.methodType(void.class, Object.class, String.class));
+                }
+                JSONField json = field == null ? null : field.getAnnotation(JSONField.class);
+                if (json != null && !json.deserialize()) {
+                    continue;
+                }
+                names.add(json != null && !json.name().isEmpty() ? json.name() : descriptor.getName());
+            }
+        } catch (IntrospectionException | IllegalAccessException e) {
+            throw new IllegalArgumentException("can not create projection for " + type.getName(), e);
+        }
+        this.includes = names.toArray(new String[0]);
+        this.idSetter = idHandle;
+    }
+
+    /**
+     * 获取目标类的投影, 按类只解析一次
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> ESProjection<T> of(Class<T> type) {
+        return (ESProjection<T>) PROJECTIONS.get(type);
+    }
+
+    /**
+     * 需要返回的 _source 字段
+     */
+    public String[] getIncludes() {
+        return includes.clone();
+    }
+
+    /**
+     * 解码命中记录
+     */
+    public T decode(SearchHit hit) {
+        BytesReference source = hit.getSourceRef();
+        T value = JSON.parseObject(source == null ? EMPTY_SOURCE : BytesReference.toBytes(source), type);
+        if (idSetter != null) {
+            try {
+                idSetter.invokeExact((Object) value, hit.getId());
+            } catch (Throwable e) {
+                throw new IllegalStateException("set id of " + type.getName() + " failed", e);
+            }
+        }
+        return value;
+    }
+
+    private static Field findField(Class<?> type, String name) {
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            try {
+                return current.getDeclaredField(name);
+            } catch (NoSuchFieldException e) {
+                //继续查找父类
+            }
+        }
+        return null;
+    }
+}
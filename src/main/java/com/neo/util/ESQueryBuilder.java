@@ -6,7 +6,6 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
 
-import java.lang.reflect.Field;
 import java.util.*;
 import java.util.Map.Entry;
 
@@ -24,6 +23,9 @@ public class ESQueryBuilder {
 
     private String desc;
 
+    //search_after游标, 为空表示第一页
+    private String cursor;
+
     private ESCriterion criterion = null;
 
     //查询条件容器
@@ -88,73 +90,20 @@ public class ESQueryBuilder {
         must();
     }
 
-    @SuppressWarnings({"rawtypes", "unchecked"})
     public <T> ESQueryBuilder setQueryBuilder(T t) {
         criterion = new ESCriterion();
-        List<Field> fieldList = new ArrayList<>();
-        Class tempClass = t.getClass();
-        while (tempClass != null) {
-            fieldList.addAll(Arrays.asList(tempClass.getDeclaredFields()));
-            tempClass = tempClass.getSuperclass();
-        }
-        for (Field field : fieldList) {
-            ESQuery esQueryAnno = field.getAnnotation(ESQuery.class);
-            if (esQueryAnno == null) {
-                continue;
-            }
-            Object fValue = null;
-            try {
-                field.setAccessible(true);
-                fValue = field.get(t);
-            } catch (IllegalAccessException e) {
-                e.printStackTrace();
-            }
-            if (fValue == null || fValue.equals("-1")) {
-                continue;
-            }
-            ESQueryType type = esQueryAnno.type();
-            String key = field.getName();
-            if (esQueryAnno.key() != null && !esQueryAnno.key().equals("")) {
-                key = esQueryAnno.key();
-            }
-            if (type == null) {
-                //默认使用ES的term查询
-                criterion.term(key, fValue);
-            } else {
-                switch (type) {
-                    case TERMS:
-						/*String split = esQueryAnno.split();
-						String[] splitValue = null;
-						if (split != null) {
-							splitValue = fValue.toString().split(split);
-						}
-						if (splitValue != null) {
-							criterion.terms(key, Arrays.asList(splitValue));
-						} else {
-							criterion.terms(key, Arrays.asList(fValue));
-						}
-						break;*/
-                        Collection<Object> cv = (Collection<Object>) fValue;
-                        criterion.terms(key, cv);
-                        break;
-                    case RANGE:
-                        Object[] v = (Object[]) fValue;
-                        if (v.length == 2) {
-                            criterion.range(key, v[0], v[1]);
-                        } else {
-                            criterion.range(key, fValue, null);
-                        }
-                        break;
-                    case MATCH:
-                        criterion.match(key, fValue);
-                        break;
-                    default:
-                        //默认使用ES的term查询
-                        criterion.term(key, fValue);
-                        break;
-                }
-            }
-        }
+        //按类缓存的查询计划, 不再每次反射读取字段和注解
+        ESQueryPlan.of(t.getClass()).apply(t, criterion);
+        must();
+        return this;
+    }
+
+    /**
+     * 使用已构造好的查询子句作为must条件, 如 @ESQuery 条件类编译期生成的 XxxESQueryBuilder.clauses
+     */
+    public ESQueryBuilder setQueryClauses(List<QueryBuilder> clauses) {
+        criterion = new ESCriterion();
+        criterion.list.addAll(clauses);
         must();
         return this;
     }
@@ -184,6 +133,15 @@ public class ESQueryBuilder {
         this.desc = desc;
     }
 
+    public String getCursor() {
+        return cursor;
+    }
+
+    public ESQueryBuilder setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
     public int getFrom() {
         return from;
     }
@@ -0,0 +1,176 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.serializer.SerializerFeature;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToIntFunction;
+
+/**
+ * 查询结果缓存
+ * <p>
+ * key 由索引版本号和查询的规范形式组成: bool 子句和 terms 取值与顺序无关, 对象字段按名称排序.
+ * 通过 ESUtil 写入索引时该索引版本号加一, 旧结果不再命中, 由TTL或容量淘汰
+ */
+@Component
+public class ESQueryCache {
+
+    @Value("${whale.history.es.query-cache.enabled:true}")
+    private boolean enabled = true;
+
+    //按结果序列化后的字节数限制缓存大小
+    @Value("${whale.history.es.query-cache.max-weight-mb:32}")
+    private long maxWeightMb = 32;
+
+    @Value("${whale.history.es.query-cache.ttl-seconds:5}")
+    private long ttlSeconds = 5;
+
+    //与顺序无关的bool子句
+    private static final List<String> UNORDERED_CLAUSES = Arrays.asList("must", "should", "must_not", "filter");
+
+    private Cache<String, Result> results;
+
+    //索引名 -> 版本号
+    private final Map<String, AtomicLong> generations = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        results = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeightMb * 1024 * 1024)
+                .<String, Result>weigher((key, result) -> 2 * key.length() + result.weight)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * 读取缓存, 未命中时执行查询并缓存
+     *
+     * @param index   索引名, 多个索引用逗号分隔
+     * @param query   查询的规范形式, 见 {@link #canonical}
+     * @param loader  执行查询
+     * @param weigher 估算结果占用的字节数
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V get(String index, String query, Callable<V> loader, ToIntFunction<? super V> weigher) throws Exception {
+        if (!enabled) {
+            return loader.call();
+        }
+        try {
+            return (V) results.get(key(index, query), () -> {
+                V value = loader.call();
+                return new Result(value, weigher.applyAsInt(value));
+            }).value;
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /**
+     * 索引有写入, 该索引的缓存结果全部失效
+     */
+    public void invalidateIndex(String index) {
+        generations.computeIfAbsent(index, name -> new AtomicLong()).incrementAndGet();
+    }
+
+    public CacheStats getStats() {
+        return results.stats();
+    }
+
+    private String key(String index, String query) {
+        StringBuilder key = new StringBuilder();
+        for (String name : index.split(",")) {
+            AtomicLong generation = generations.get(name);
+            key.append(name).append('@').append(generation == null ? 0 : generation.get()).append(',');
+        }
+        return key.append('|').append(query).toString();
+    }
+
+    /**
+     * 查询条件、排序等组成的规范形式
+     *
+     * @param parts 查询条件、排序(ToXContent)或from、size等
+     */
+    public static String canonical(Object... parts) {
+        StringBuilder canonical = new StringBuilder();
+        for (Object part : parts) {
+            if (part instanceof ToXContent) {
+                String json = Strings.toString((ToXContent) part);
+                canonical.append(JSON.toJSONString(normalize(JSON.parse(json), null, null), SerializerFeature.MapSortField));
+            } else {
+                canonical.append(part);
+            }
+            canonical.append('|');
+        }
+        return canonical.toString();
+    }
+
+    /**
+     * @param name   当前节点的字段名
+     * @param parent 上一级字段名
+     */
+    private static Object normalize(Object node, String name, String parent) {
+        if (node instanceof JSONObject) {
+            JSONObject object = (JSONObject) node;
+            JSONObject normalized = new JSONObject(object.size(), true);
+            object.keySet().stream().sorted().forEach(key -> normalized.put(key, normalize(object.get(key), key, name)));
+            return normalized;
+        }
+        if (node instanceof JSONArray) {
+            List<Object> items = new ArrayList<>();
+            for (Object item : (JSONArray) node) {
+                items.add(normalize(item, null, null));
+            }
+            //bool子句以及terms查询的取值与顺序无关
+            if (UNORDERED_CLAUSES.contains(name) || "terms".equals(parent)) {
+                items.sort(Comparator.comparing(item -> JSON.toJSONString(item, SerializerFeature.MapSortField)));
+            }
+            return new JSONArray(items);
+        }
+        return node;
+    }
+
+    /**
+     * 估算字符串列表占用的字节数
+     */
+    public static int weigh(List<String> sources) {
+        int weight = 0;
+        for (String source : sources == null ? Collections.<String>emptyList() : sources) {
+            weight += source == null ? 0 : 2 * source.length();
+        }
+        return weight;
+    }
+
+    private static class Result {
+        private final Object value;
+
+        private final int weight;
+
+        Result(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.neo.util;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 查询条件类的查询计划
+ * <p>
+ * 按类解析一次带 {@link ESQuery} 注解的字段, 取值使用 MethodHandle, 查询方式在解析时确定;
+ * 之后构造查询只需遍历各字段
+ */
+final class ESQueryPlan {
+
+    //按类缓存
+    private static final ClassValue<ESQueryPlan> PLANS = new ClassValue<ESQueryPlan>() {
+        @Override
+        protected ESQueryPlan computeValue(Class<?> type) {
+            return new ESQueryPlan(type);
+        }
+    };
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+    private final Clause[] clauses;
+
+    private ESQueryPlan(Class<?> type) {
+        List<Clause> list = new ArrayList<>();
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        //子类字段在前, 与原先按继承层次遍历的顺序一致
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Field field : current.getDeclaredFields()) {
+                ESQuery annotation = field.getAnnotation(ESQuery.class);
+                if (annotation == null) {
+                    continue;
+                }
+                String key = annotation.key().isEmpty() ? field.getName() : annotation.key();
+                list.add(new Clause(key, getter(lookup, field), emitterOf(annotation.type())));
+            }
+        }
+        this.clauses = list.toArray(new Clause[0]);
+    }
+
+    static ESQueryPlan of(Class<?> type) {
+        return PLANS.get(type);
+    }
+
+    /**
+     * 把条件对象中非空(且不为"-1")的字段加入查询条件
+     */
+    void apply(Object criteria, ESQueryBuilder.ESCriterion criterion) {
+        for (Clause clause : clauses) {
+            Object value;
+            try {
+                value = clause.getter.invokeExact(criteria);
+            } catch (Throwable e) {
+                throw new IllegalStateException("read field " + clause.key + " of " + criteria.getClass().getName() + " failed", e);
+            }
+            if (value == null || value.equals("-1")) {
+                continue;
+            }
+            clause.emitter.emit(criterion, clause.key, value);
+        }
+    }
+
+    private static MethodHandle getter(MethodHandles.Lookup lookup, Field field) {
+        field.setAccessible(true);
+        try {
+            MethodHandle getter = lookup.unreflectGetter(field);
+            if (Modifier.isStatic(field.getModifiers())) {
+                getter = MethodHandles.dropArguments(getter, 0, Object.class);
+            }
+            return getter.asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("can not access field " + field, e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Emitter emitterOf(ESQueryType type) {
+        if (type == null) {
+            //默认使用ES的term查询
+            return ESQueryBuilder.ESCriterion::term;
+        }
+        switch (type) {
+            case TERMS:
+                return (criterion, key, value) -> criterion.terms(key, (Collection<Object>) value);
+            case RANGE:
+                return (criterion, key, value) -> {
+                    Object[] v = (Object[]) value;
+                    if (v.length == 2) {
+                        criterion.range(key, v[0], v[1]);
+                    } else {
+                        criterion.range(key, value, null);
+                    }
+                };
+            case MATCH:
+                return ESQueryBuilder.ESCriterion::match;
+            default:
+                //默认使用ES的term查询
+                return ESQueryBuilder.ESCriterion::term;
+        }
+    }
+
+    private interface Emitter {
+        void emit(ESQueryBuilder.ESCriterion criterion, String key, Object value);
+    }
+
+    private static final class Clause {
+        private final String key;
+
+        private final MethodHandle getter;
+
+        private final Emitter emitter;
+
+        Clause(String key, MethodHandle getter, Emitter emitter) {
+            this.key = key;
+            this.getter = getter;
+            this.emitter = emitter;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.neo.util;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.SearchHit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 滚动查询迭代器
+ * <p>
+ * 调用方消费当前页时在后台预取后续页, 缓冲页数有上限; 读取完毕、出错或 close 时释放服务端scroll上下文.
+ * 提前结束遍历时必须调用 close(或对 stream() 使用 try-with-resources)
+ */
+public class ESScrollIterator implements Iterator<SearchHit>, Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ESScrollIterator.class);
+
+    private final Client client;
+
+    private final TimeValue keepAlive;
+
+    private final int prefetchPages;
+
+    //已取回未消费的页
+    private final Deque<SearchHit[]> pages = new ArrayDeque<>();
+
+    private SearchHit[] current = new SearchHit[0];
+
+    private int position;
+
+    private String scrollId;
+
+    private boolean inflight;
+
+    private boolean exhausted;
+
+    private boolean closed;
+
+    private Exception failure;
+
+    /**
+     * @param client        es client
+     * @param request       查询请求, 会被设置scroll
+     * @param keepAlive     scroll上下文有效期
+     * @param prefetchPages 最多缓冲的页数
+     */
+    public ESScrollIterator(Client client, SearchRequestBuilder request, TimeValue keepAlive, int prefetchPages) {
+        this.client = client;
+        this.keepAlive = keepAlive;
+        this.prefetchPages = Math.max(1, prefetchPages);
+        synchronized (this) {
+            inflight = true;
+        }
+        request.setScroll(keepAlive).execute(listener());
+    }
+
+    private ActionListener<SearchResponse> listener() {
+        return ActionListener.wrap(this::onPage, this::onFailure);
+    }
+
+    private synchronized void onPage(SearchResponse response) {
+        inflight = false;
+        scrollId = response.getScrollId();
+        SearchHit[] hits = response.getHits().getHits();
+        if (closed) {
+            clearScroll();
+            return;
+        }
+        if (hits.length == 0) {
+            exhausted = true;
+            clearScroll();
+        } else {
+            pages.addLast(hits);
+            fetchNext();
+        }
+        notifyAll();
+    }
+
+    private synchronized void onFailure(Exception e) {
+        inflight = false;
+        failure = e;
+        exhausted = true;
+        clearScroll();
+        notifyAll();
+    }
+
+    /**
+     * 缓冲未满且没有进行中的请求时预取下一页
+     */
+    private void fetchNext() {
+        if (!inflight && !exhausted && !closed && pages.size() < prefetchPages) {
+            inflight = true;
+            client.prepareSearchScroll(scrollId).setScroll(keepAlive).execute(listener());
+        }
+    }
+
+    private void clearScroll() {
+        if (scrollId == null) {
+            return;
+        }
+        String id = scrollId;
+        scrollId = null;
+        client.prepareClearScroll().addScrollId(id).execute(ActionListener.wrap(
+                response -> {
+                },
+                e -> logger.warn("clear scroll failed", e)));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (position < current.length) {
+            return true;
+        }
+        synchronized (this) {
+            while (pages.isEmpty() && !exhausted && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new ElasticsearchException("scroll interrupted", e);
+                }
+            }
+            if (failure != null) {
+                throw new ElasticsearchException("scroll failed", failure);
+            }
+            if (pages.isEmpty()) {
+                return false;
+            }
+            current = pages.pollFirst();
+            position = 0;
+            fetchNext();
+            return true;
+        }
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current[position++];
+    }
+
+    /**
+     * 转换为Stream, 关闭Stream时释放scroll
+     */
+    public Stream<SearchHit> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        pages.clear();
+        current = new SearchHit[0];
+        if (!inflight) {
+            clearScroll();
+        }
+        notifyAll();
+    }
+}
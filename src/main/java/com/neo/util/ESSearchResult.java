@@ -0,0 +1,81 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.search.SearchHit;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 批量查询(msearch)中单个查询的结果, 失败时只有 failure
+ */
+public class ESSearchResult {
+    private final SearchResponse response;
+
+    private final String failure;
+
+    private ESSearchResult(SearchResponse response, String failure) {
+        this.response = response;
+        this.failure = failure;
+    }
+
+    static ESSearchResult of(SearchResponse response) {
+        return new ESSearchResult(response, null);
+    }
+
+    static ESSearchResult failed(String failure) {
+        return new ESSearchResult(null, failure);
+    }
+
+    public boolean isFailed() {
+        return failure != null;
+    }
+
+    public String getFailure() {
+        return failure;
+    }
+
+    @JsonIgnore
+    public SearchResponse getResponse() {
+        return response;
+    }
+
+    public long getTotal() {
+        return response == null ? 0 : response.getHits().getTotalHits();
+    }
+
+    public long getTookMillis() {
+        return response == null ? 0 : response.getTook().millis();
+    }
+
+    /**
+     * 命中记录的 _source
+     */
+    public List<Map<String, Object>> getSources() {
+        if (response == null) {
+            return Collections.emptyList();
+        }
+        SearchHit[] hits = response.getHits().getHits();
+        List<Map<String, Object>> sources = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            sources.add(hit.getSourceAsMap());
+        }
+        return sources;
+    }
+
+    /**
+     * 聚合结果, 结构与ES返回的 aggregations 相同
+     */
+    public Map<String, Object> getAggregations() {
+        if (response == null || response.getAggregations() == null) {
+            return Collections.emptyMap();
+        }
+        //输出格式为 {"aggregations":{...}}
+        return JSON.parseObject(Strings.toString(response.getAggregations())).getJSONObject("aggregations");
+    }
+}
@@ -0,0 +1,111 @@
+package com.neo.util;
+
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchModule;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * 批量查询(msearch)中的单个查询
+ * <pre>
+ * ESSearchSpec.of("customer", "customer", queryBuilder).sort(sortBuilder).from(0).size(10)
+ * </pre>
+ */
+public class ESSearchSpec {
+
+    private static final NamedXContentRegistry REGISTRY =
+            new NamedXContentRegistry(new SearchModule(Settings.EMPTY, false, Collections.emptyList()).getNamedXContents());
+
+    private final String index;
+
+    private final String type;
+
+    private final SearchSourceBuilder source;
+
+    private ESSearchSpec(String index, String type, SearchSourceBuilder source) {
+        this.index = index;
+        this.type = type;
+        this.source = source;
+    }
+
+    public static ESSearchSpec of(String index, String type, QueryBuilder queryBuilder) {
+        return new ESSearchSpec(index, type, new SearchSourceBuilder().query(queryBuilder));
+    }
+
+    /**
+     * 使用 builder 的条件、排序和分页
+     */
+    public static ESSearchSpec of(String index, String type, ESQueryBuilder builder) {
+        ESSearchSpec spec = of(index, type, builder.listBuilders())
+                .from(Math.max(builder.getFrom(), 0))
+                .size(builder.getSize());
+        if (builder.getAsc() != null && builder.getAsc().length() > 0) {
+            spec.source.sort(builder.getAsc(), SortOrder.ASC);
+        }
+        if (builder.getDesc() != null && builder.getDesc().length() > 0) {
+            spec.source.sort(builder.getDesc(), SortOrder.DESC);
+        }
+        return spec;
+    }
+
+    /**
+     * 解析ES查询DSL(请求体中的 query、sort、from、size、aggs、_source 等)
+     *
+     * @throws IllegalArgumentException DSL格式错误
+     */
+    public static ESSearchSpec parse(String index, String type, String json) {
+        try (XContentParser parser = XContentType.JSON.xContent().createParser(REGISTRY, LoggingDeprecationHandler.INSTANCE, json)) {
+            return new ESSearchSpec(index, type, SearchSourceBuilder.fromXContent(parser));
+        } catch (IOException | RuntimeException e) {
+            //不回显请求体
+            throw new IllegalArgumentException("invalid search body: " + e.getMessage(), e);
+        }
+    }
+
+    public ESSearchSpec sort(SortBuilder<?> sortBuilder) {
+        source.sort(sortBuilder);
+        return this;
+    }
+
+    public ESSearchSpec from(int from) {
+        source.from(from);
+        return this;
+    }
+
+    public ESSearchSpec size(int size) {
+        source.size(size);
+        return this;
+    }
+
+    public ESSearchSpec includes(String... includes) {
+        source.fetchSource(includes, null);
+        return this;
+    }
+
+    public ESSearchSpec aggregation(AggregationBuilder aggregation) {
+        source.aggregation(aggregation);
+        return this;
+    }
+
+    public String getIndex() {
+        return index;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public SearchSourceBuilder getSource() {
+        return source;
+    }
+}
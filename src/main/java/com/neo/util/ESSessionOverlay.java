@@ -0,0 +1,73 @@
+package com.neo.util;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * session一致性模式下最近写入数据的客户端缓存
+ * 只缓存完整文档; 局部更新仅在已有完整文档时合并, 否则丢弃缓存交由ES读取
+ */
+public class ESSessionOverlay {
+    private static final long MAX_ENTRIES = 10000;
+
+    private final Cache<String, Map<String, Object>> recent;
+
+    public ESSessionOverlay(long ttlMillis) {
+        this.recent = CacheBuilder.newBuilder()
+                .maximumSize(MAX_ENTRIES)
+                .expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * 记录完整文档
+     */
+    public void put(String index, String type, String id, Map<String, ?> source) {
+        if (id == null || source == null) {
+            return;
+        }
+        recent.put(key(index, type, id), new HashMap<>(source));
+    }
+
+    /**
+     * 合并局部更新, 与ES局部更新一致: 对象字段递归合并, 其他字段覆盖
+     */
+    public void merge(String index, String type, String id, Map<String, ?> fields) {
+        String key = key(index, type, id);
+        Map<String, Object> source = recent.getIfPresent(key);
+        if (source == null) {
+            return;
+        }
+        if (fields == null) {
+            recent.invalidate(key);
+            return;
+        }
+        Map<String, Object> merged = new HashMap<>(source);
+        ESUpdateBuffer.merge(merged, fields);
+        recent.put(key, merged);
+    }
+
+    public boolean contains(String index, String type, String id) {
+        return recent.getIfPresent(key(index, type, id)) != null;
+    }
+
+    /**
+     * 获取最近写入的文档, 不存在返回null
+     */
+    public Map<String, Object> get(String index, String type, String id) {
+        Map<String, Object> source = recent.getIfPresent(key(index, type, id));
+        return source == null ? null : new HashMap<>(source);
+    }
+
+    public void invalidate(String index, String type, String id) {
+        recent.invalidate(key(index, type, id));
+    }
+
+    private static String key(String index, String type, String id) {
+        return index + '/' + type + '/' + id;
+    }
+}
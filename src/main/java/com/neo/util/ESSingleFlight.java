@@ -0,0 +1,74 @@
+package com.neo.util;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 相同查询合并
+ * <p>
+ * 同一时刻 key 相同的查询只发送一次, 其余调用等待并共享该次结果(包括异常); 查询结束即移除, 不缓存结果.
+ * 所有调用方拿到的是同一个结果对象, 结果可变时由调用方复制后再修改; 等待超过上限时抛出 TimeoutException
+ */
+@Component
+public class ESSingleFlight {
+
+    @Value("${whale.history.es.single-flight.wait-timeout-ms:30000}")
+    private long waitTimeoutMs = 30000;
+
+    private final Map<String, CompletableFuture<Object>> inflight = new ConcurrentHashMap<>();
+
+    //实际执行的查询数
+    private final LongAdder executed = new LongAdder();
+
+    //被合并的查询数
+    private final LongAdder collapsed = new LongAdder();
+
+    /**
+     * 执行查询, 已有相同查询在执行时等待其结果
+     *
+     * @param key  查询的规范形式, 见 {@link ESQueryCache#canonical}
+     * @param call 执行查询
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(String key, Callable<V> call) throws Exception {
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> running = inflight.putIfAbsent(key, mine);
+        if (running != null) {
+            collapsed.increment();
+            try {
+                return (V) running.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+        executed.increment();
+        try {
+            V value = call.call();
+            mine.complete(value);
+            return value;
+        } catch (Exception | Error e) {
+            //Error也要通知等待方, 否则等待方会一直阻塞
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    public long getExecuted() {
+        return executed.sum();
+    }
+
+    public long getCollapsed() {
+        return collapsed.sum();
+    }
+}
@@ -0,0 +1,148 @@
+package com.neo.util;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.search.SearchHit;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 分片滚动查询
+ * <p>
+ * 每个slice在线程池中独立滚动读取, 结果按批放入有界队列合并为一个迭代器, 顺序不保证.
+ * slice的scroll在任务开始执行时才创建, 排队中的slice不会占用服务端scroll上下文
+ */
+public class ESSlicedScroll implements Iterator<SearchHit>, Closeable {
+
+    //slice读取结束标记
+    private static final List<SearchHit> END = Collections.emptyList();
+
+    private final BlockingQueue<List<SearchHit>> batches;
+
+    private final List<Future<?>> tasks = new ArrayList<>();
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    private List<SearchHit> current = Collections.emptyList();
+
+    private int position;
+
+    private int running;
+
+    private volatile boolean closed;
+
+    /**
+     * @param pool      读取线程池
+     * @param slices    slice数
+     * @param batchSize 每批条数
+     * @param queueSize 队列中最多缓冲的批数
+     * @param openSlice 按slice id打开滚动迭代器
+     */
+    ESSlicedScroll(ExecutorService pool, int slices, int batchSize, int queueSize, IntFunction<ESScrollIterator> openSlice) {
+        this.batches = new ArrayBlockingQueue<>(Math.max(queueSize, 1));
+        this.running = slices;
+        for (int i = 0; i < slices; i++) {
+            int slice = i;
+            tasks.add(pool.submit(() -> read(openSlice, slice, batchSize)));
+        }
+    }
+
+    private void read(IntFunction<ESScrollIterator> openSlice, int slice, int batchSize) {
+        //打开scroll的异常(如无可用节点)同样要放入结束标记, 否则读取方一直等待
+        try (ESScrollIterator it = openSlice.apply(slice)) {
+            List<SearchHit> batch = new ArrayList<>(batchSize);
+            while (!closed && it.hasNext()) {
+                batch.add(it.next());
+                if (batch.size() >= batchSize) {
+                    batches.put(batch);
+                    batch = new ArrayList<>(batchSize);
+                }
+            }
+            if (!batch.isEmpty() && !closed) {
+                batches.put(batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception | Error e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            if (!closed) {
+                try {
+                    batches.put(END);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (position >= current.size()) {
+            if (closed || running == 0) {
+                return false;
+            }
+            List<SearchHit> batch;
+            try {
+                batch = batches.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new ElasticsearchException("sliced scroll interrupted", e);
+            }
+            if (batch == END) {
+                running--;
+                if (failure.get() != null) {
+                    close();
+                    throw new ElasticsearchException("sliced scroll failed", failure.get());
+                }
+                continue;
+            }
+            current = batch;
+            position = 0;
+        }
+        return true;
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return current.get(position++);
+    }
+
+    /**
+     * 转换为Stream, 关闭Stream时结束所有slice并释放scroll
+     */
+    public Stream<SearchHit> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        //中断阻塞在队列上的读取任务, 任务退出时关闭各自的scroll
+        tasks.forEach(task -> task.cancel(true));
+        batches.clear();
+        current = Collections.emptyList();
+    }
+}
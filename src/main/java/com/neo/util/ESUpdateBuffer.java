@@ -0,0 +1,322 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 局部更新写缓冲
+ * <p>
+ * 同一 index/type/_id 在一个刷新周期内的多次局部更新合并为一次upsert(与ES局部更新一致, 对象字段递归合并, 其他字段覆盖),
+ * 按时间间隔或缓冲条数批量提交; 提交失败的更新放回缓冲下次重试, 只丢弃不可重试的失败.
+ * 通过本类读取时会叠加尚未落盘的字段
+ */
+@Component
+public class ESUpdateBuffer {
+    private static final Logger logger = LoggerFactory.getLogger(ESUpdateBuffer.class);
+
+    @Autowired
+    private ESUtil esUtil;
+
+    @Value("${whale.history.es.update-buffer.flush-interval-ms:200}")
+    private long flushIntervalMs = 200;
+
+    @Value("${whale.history.es.update-buffer.max-pending:500}")
+    private int maxPending = 500;
+
+    //等待提交的更新
+    private final ConcurrentHashMap<String, PendingUpdate> pending = new ConcurrentHashMap<>();
+
+    //已取出但bulk尚未返回的更新, 移出pending后字段不再修改
+    private final ConcurrentHashMap<String, PendingUpdate> inflight = new ConcurrentHashMap<>();
+
+    //缓冲已满时是否已安排提交, 避免每次更新都提交一个任务
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService scheduler;
+
+    @PostConstruct
+    public void init() {
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "es-update-buffer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param index  索引名
+     * @param type   类型
+     * @param _id    数据id
+     * @param fields 数据字段
+     */
+    public void update(String index, String type, String _id, Map<String, ?> fields) {
+        String key = key(index, type, _id);
+        pending.compute(key, (k, update) -> {
+            if (update == null) {
+                update = new PendingUpdate(index, type, _id);
+            }
+            synchronized (update) {
+                merge(update.fields, fields);
+            }
+            return update;
+        });
+        if (pending.size() >= maxPending && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                //先复位, 提交期间再次写满时可以重新安排
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param index  索引名
+     * @param type   类型
+     * @param _id    数据id
+     * @param fields 数据字段名
+     * @param values 数据字段值
+     */
+    public void update(String index, String type, String _id, String[] fields, Object[] values) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        for (int i = 0; i < fields.length; i++) {
+            map.put(fields[i], values[i]);
+        }
+        update(index, type, _id, map);
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param _id   数据id
+     * @param field 数据字段名
+     * @param value 数据字段值
+     */
+    public void update(String index, String type, String _id, String field, Object value) {
+        Map<String, Object> map = new HashMap<>();
+        map.put(field, value);
+        update(index, type, _id, map);
+    }
+
+    /**
+     * 更新记录
+     *
+     * @param index  索引名
+     * @param type   类型
+     * @param _id    数据id
+     * @param object 记录
+     */
+    public void update(String index, String type, String _id, Object object) {
+        update(index, type, _id, (JSONObject) JSONObject.toJSON(object));
+    }
+
+    /**
+     * 查询(叠加缓冲中尚未提交的字段)
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param _id   主键
+     */
+    public Map<String, Object> searchMapById(String index, String type, String _id) throws Exception {
+        String key = key(index, type, _id);
+        //按 pending -> inflight -> ES 的顺序读取, 与更新的移动方向相反, 提交过程中的字段至少在一处可见
+        Map<String, Object> waiting = null;
+        PendingUpdate update = pending.get(key);
+        if (update != null) {
+            waiting = new LinkedHashMap<>();
+            synchronized (update) {
+                merge(waiting, update.fields);
+            }
+        }
+        PendingUpdate flushing = inflight.get(key);
+        if (flushing == update) {
+            //读取pending后已被取出提交, 快照已包含其字段
+            flushing = null;
+        }
+        Map<String, Object> source = esUtil.searchMapById(index, type, _id);
+        if (flushing == null && waiting == null) {
+            return source;
+        }
+        Map<String, Object> merged = source == null ? new HashMap<>() : new HashMap<>(source);
+        if (flushing != null) {
+            //移出pending前仍可能有更新合并进来
+            synchronized (flushing) {
+                merge(merged, flushing.fields);
+            }
+        }
+        if (waiting != null) {
+            merge(merged, waiting);
+        }
+        return merged;
+    }
+
+    /**
+     * 查询(叠加缓冲中尚未提交的字段)
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param _id   主键
+     */
+    public String searchById(String index, String type, String _id) throws Exception {
+        Map<String, Object> source = searchMapById(index, type, _id);
+        return source == null ? null : JSON.toJSONString(source);
+    }
+
+    /**
+     * 等待提交的文档数
+     */
+    public int pendingSize() {
+        return pending.size();
+    }
+
+    /**
+     * 提交缓冲中的所有更新
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        List<PendingUpdate> updates = new ArrayList<>(pending.size());
+        for (String key : pending.keySet()) {
+            PendingUpdate update = pending.get(key);
+            if (update == null) {
+                continue;
+            }
+            //先放入inflight再移出pending, 读取时不会两处都找不到
+            inflight.put(key, update);
+            pending.remove(key);
+            updates.add(update);
+        }
+        //提交失败需要重试的更新
+        List<PendingUpdate> retries = updates;
+        try {
+            BulkRequestBuilder bulkRequest = esUtil.getClient().prepareBulk();
+            for (PendingUpdate update : updates) {
+                bulkRequest.add(new UpdateRequest(update.index, update.type, update.id)
+                        .doc(update.fields)
+                        .docAsUpsert(true));
+            }
+            BulkResponse response = bulkRequest.get();
+            retries = new ArrayList<>();
+            for (BulkItemResponse item : response) {
+                PendingUpdate update = updates.get(item.getItemId());
+                esUtil.evict(update.index, update.type, update.id);
+                if (!item.isFailed()) {
+                    continue;
+                }
+                if (retryable(item.status().getStatus())) {
+                    logger.warn("buffered update failed, retry later, id:{} msg:{}", item.getId(), item.getFailureMessage());
+                    retries.add(update);
+                } else {
+                    logger.error("buffered update failed, dropped, id:{} msg:{}", item.getId(), item.getFailureMessage());
+                }
+            }
+        } finally {
+            //先放回缓冲再移出inflight, 读取时不会丢失这些字段
+            for (PendingUpdate update : retries) {
+                requeue(update);
+            }
+            inflight.clear();
+        }
+    }
+
+    /**
+     * 失败的更新复制后放回缓冲, 期间同一文档的新更新覆盖在其之上; 不修改inflight中的对象, 读取方无需加锁
+     */
+    private void requeue(PendingUpdate failed) {
+        pending.compute(key(failed.index, failed.type, failed.id), (k, newer) -> {
+            PendingUpdate retry = new PendingUpdate(failed.index, failed.type, failed.id);
+            merge(retry.fields, failed.fields);
+            if (newer != null) {
+                synchronized (newer) {
+                    merge(retry.fields, newer.fields);
+                }
+            }
+            return retry;
+        });
+    }
+
+    private static boolean retryable(int status) {
+        return status == 429 || status == 502 || status == 503 || status == 504;
+    }
+
+    /**
+     * 按ES局部更新的规则把source合并到target: 两边都是对象的字段递归合并, 其他字段覆盖; 不修改source中的对象
+     */
+    @SuppressWarnings("unchecked")
+    static void merge(Map<String, Object> target, Map<String, ?> source) {
+        for (Map.Entry<String, ?> entry : source.entrySet()) {
+            Object current = target.get(entry.getKey());
+            Object value = entry.getValue();
+            if (current instanceof Map && value instanceof Map) {
+                Map<String, Object> nested = new LinkedHashMap<>((Map<String, Object>) current);
+                merge(nested, (Map<String, ?>) value);
+                target.put(entry.getKey(), nested);
+            } else {
+                target.put(entry.getKey(), value);
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception e) {
+            logger.error("flush update buffer failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        scheduler.shutdown();
+        flushQuietly();
+    }
+
+    private static String key(String index, String type, String _id) {
+        return index + '/' + type + '/' + _id;
+    }
+
+    private static class PendingUpdate {
+        private final String index;
+
+        private final String type;
+
+        private final String id;
+
+        private final Map<String, Object> fields = new LinkedHashMap<>();
+
+        PendingUpdate(String index, String type, String id) {
+            this.index = index;
+            this.type = type;
+            this.id = id;
+        }
+    }
+}
@@ -2,16 +2,27 @@ package com.neo.util;
 
 import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.action.ActionFuture;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetRequestBuilder;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequestBuilder;
+import org.elasticsearch.action.search.MultiSearchResponse;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
-import org.elasticsearch.action.support.WriteRequest;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.transport.TransportClient;
@@ -21,7 +32,9 @@ import org.elasticsearch.common.transport.TransportAddress;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryAction;
 import org.elasticsearch.script.Script;
@@ -40,7 +53,11 @@ import org.elasticsearch.search.aggregations.bucket.terms.Terms.Bucket;
 import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
 import org.elasticsearch.search.aggregations.metrics.cardinality.Cardinality;
 import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.search.slice.SliceBuilder;
 import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.elasticsearch.transport.client.PreBuiltTransportClient;
 import org.joda.time.DateTimeZone;
@@ -52,8 +69,22 @@ import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
 import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
@@ -74,11 +105,71 @@ public class ESUtil {
     @Value("${whale.history.es.cluster.address:localhost:9300}")
     private String clusterAddress;
 
+    @Value("${whale.history.es.scroll.keep-alive-ms:60000}")
+    private long scrollKeepAliveMs = 60000;
+
+    @Value("${whale.history.es.scroll.page-size:1000}")
+    private int scrollPageSize = 1000;
+
+    //后台预取的最大页数
+    @Value("${whale.history.es.scroll.prefetch-pages:2}")
+    private int scrollPrefetchPages = 2;
+
+    //分片滚动查询的读取线程数
+    @Value("${whale.history.es.scroll.slice-threads:4}")
+    private int sliceThreads = 4;
+
+    private ExecutorService slicePool;
+
+    //按id查询的合并窗口, 小于等于0时不合并
+    @Value("${whale.history.es.get-batch.window-ms:2}")
+    private long getBatchWindowMs = 2;
+
+    @Value("${whale.history.es.get-batch.max-size:100}")
+    private int getBatchMaxSize = 100;
+
+    //等待合并查询结果的超时时间
+    @Value("${whale.history.es.get-batch.timeout-ms:30000}")
+    private long getBatchTimeoutMs = 30000;
+
+    private ESBatchLoader<ESDocKey, MultiGetItemResponse> getLoader;
+
+    //search_after翻页的唯一排序字段, 须为有doc_values的keyword字段; 6.x按 _id 排序会把fielddata加载到堆内存
+    @Value("${whale.history.es.search-after.tie-breaker:id.keyword}")
+    private String tieBreaker = "id.keyword";
+
+    //游标分页统计总数时每个分片的计数上限, 小于等于0时精确统计
+    @Value("${whale.history.es.search-after.track-total-hits:10000}")
+    private int trackTotalHitsThreshold = 10000;
+
+    @Autowired
+    private ESConsistencyProperties consistencyProperties;
+
+    private ESSessionOverlay sessionOverlay;
+
+    @Autowired
+    private ESNoopCache noopCache;
+
+    @Autowired
+    private ESDocumentCache documentCache;
+
+    @Autowired
+    private ESQueryCache queryCache;
+
+    @Autowired
+    private ESSingleFlight singleFlight;
+
     /**
      * client初始化
      */
     @PostConstruct
     public void init() {
+        sessionOverlay = new ESSessionOverlay(consistencyProperties.getSessionTtlMs());
+        getLoader = new ESBatchLoader<>("es-mget", this::multiGet, getBatchWindowMs, getBatchMaxSize);
+        slicePool = Executors.newFixedThreadPool(sliceThreads, new ThreadFactoryBuilder()
+                .setNameFormat("es-slice-%d")
+                .setDaemon(true)
+                .build());
         try {
             Settings settings = Settings.builder().put("cluster.name", clusterName).build();
             /**
@@ -108,15 +199,89 @@ public class ESUtil {
      * @param object
      */
     public void insert(String index, String type, String id, Object object) {
+        insert(index, type, id, object, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 保存记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param mode   一致性模式
+     */
+    public void insert(String index, String type, String id, Object object, ESConsistency mode) {
+        JSONObject source;
+        long ticket = noopCache.beginWrite(index, type, id);
         try {
-            JSONObject source = (JSONObject) JSONObject.toJSON(object);
+            source = (JSONObject) JSONObject.toJSON(object);
             IndexRequest indexRequest = new IndexRequest(index, type, id)
-                    .setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE)
+                    .setRefreshPolicy(mode.getRefreshPolicy())
                     .source(source);
-            client.index(indexRequest);
+            client.index(indexRequest).get();
+        } catch (Exception e) {
+            //写入结果未知, 只清除缓存
+            evict(index, type, id);
+            logger.error("insert data failed", e);
+            return;
+        }
+        //写入成功后才缓存新内容
+        evictCached(index, type, id);
+        String json = source.toJSONString();
+        documentCache.put(index, type, id, json);
+        if (mode == ESConsistency.SESSION) {
+            sessionOverlay.put(index, type, id, source);
+        }
+        noopCache.completeWrite(index, type, id, json, ticket);
+    }
+
+    /**
+     * 保存记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param codec  文档编码器
+     */
+    public <T> void insert(String index, String type, String id, T object, ESDocumentCodec<? super T> codec) {
+        insert(index, type, id, object, codec, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 保存记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param codec  文档编码器
+     * @param mode   一致性模式
+     */
+    public <T> void insert(String index, String type, String id, T object, ESDocumentCodec<? super T> codec, ESConsistency mode) {
+        byte[] source;
+        long ticket = noopCache.beginWrite(index, type, id);
+        try {
+            source = ESCodecs.encode(codec, object);
+            IndexRequest indexRequest = new IndexRequest(index, type, id)
+                    .setRefreshPolicy(mode.getRefreshPolicy())
+                    .source(source, XContentType.JSON);
+            client.index(indexRequest).get();
         } catch (Exception e) {
+            //写入结果未知, 只清除缓存
+            evict(index, type, id);
             logger.error("insert data failed", e);
+            return;
+        }
+        //写入成功后才缓存新内容
+        evictCached(index, type, id);
+        String json = new String(source, StandardCharsets.UTF_8);
+        documentCache.put(index, type, id, json);
+        if (mode == ESConsistency.SESSION) {
+            sessionOverlay.put(index, type, id, JSON.parseObject(json));
         }
+        noopCache.completeWrite(index, type, id, json, ticket);
     }
 
     /**
@@ -129,6 +294,7 @@ public class ESUtil {
      */
     public void insertData(String index, String type, String _id, Map<String, ?> source) throws Exception {
         client.prepareIndex(index, type).setId(_id).setSource(source).get();
+        evict(index, type, _id);
     }
 
     /**
@@ -145,6 +311,7 @@ public class ESUtil {
                 .doc(jsonBuilder().startObject().field(field, value).endObject());
         UpdateResponse resp = client.update(updateRequest).get();
         resp.getGetResult();
+        evict(index, type, _id);
     }
 
     /**
@@ -166,16 +333,51 @@ public class ESUtil {
         updateRequest.doc(builder);
         UpdateResponse resp = client.update(updateRequest).get();
         resp.getGetResult();
+        evict(index, type, _id);
     }
 
     /**
      * 更新数据
      */
     public void updateData(String index, String type, String _id, String source) throws Exception {
+        updateData(index, type, _id, source, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新数据
+     *
+     * @param mode 一致性模式
+     */
+    public void updateData(String index, String type, String _id, String source, ESConsistency mode) throws Exception {
         UpdateRequest updateRequest = new UpdateRequest(index, type, _id)
-                .doc(source, XContentType.JSON).setRefreshPolicy(WriteRequest.RefreshPolicy.IMMEDIATE);
+                .doc(source, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
         UpdateResponse resp = client.update(updateRequest).get();
         resp.getGetResult();
+        afterUpdate(index, type, _id, source, mode);
+    }
+
+    /**
+     * 局部更新成功后清除缓存; session模式下已有完整文档时合并更新内容后重新放回
+     */
+    void afterUpdate(String index, String type, String _id, String source, ESConsistency mode) {
+        afterUpdate(index, type, _id, source, mode, -1);
+    }
+
+    /**
+     * @param noopTicket 大于等于0时为 {@link ESNoopCache#beginWrite} 的返回值, 记录本次内容的摘要; 否则清除摘要
+     */
+    void afterUpdate(String index, String type, String _id, String source, ESConsistency mode, long noopTicket) {
+        Map<String, Object> recent = mode == ESConsistency.SESSION ? sessionOverlay.get(index, type, _id) : null;
+        evictCached(index, type, _id);
+        if (noopTicket < 0) {
+            noopCache.invalidate(index, type, _id);
+        } else {
+            noopCache.completeWrite(index, type, _id, source, noopTicket);
+        }
+        if (recent != null) {
+            sessionOverlay.put(index, type, _id, recent);
+            sessionOverlay.merge(index, type, _id, JSON.parseObject(source));
+        }
     }
 
     /**
@@ -187,8 +389,63 @@ public class ESUtil {
      * @param object
      */
     public void update(String index, String type, String id, Object object) throws Exception {
+        update(index, type, id, object, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param mode   一致性模式
+     */
+    public void update(String index, String type, String id, Object object, ESConsistency mode) throws Exception {
         String source = JSON.toJSONString(object);
-        updateData(index, type, id, source);
+        if (noopCache.isUnchanged(index, type, id, source)) {
+            return;
+        }
+        long ticket = noopCache.beginWrite(index, type, id);
+        UpdateRequest updateRequest = new UpdateRequest(index, type, id)
+                .doc(source, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
+        client.update(updateRequest).get();
+        afterUpdate(index, type, id, source, mode, ticket);
+    }
+
+    /**
+     * 更新记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param codec  文档编码器
+     */
+    public <T> void update(String index, String type, String id, T object, ESDocumentCodec<? super T> codec) throws Exception {
+        update(index, type, id, object, codec, consistencyProperties.resolve(index));
+    }
+
+    /**
+     * 更新记录
+     *
+     * @param index
+     * @param type
+     * @param id
+     * @param object
+     * @param codec  文档编码器
+     * @param mode   一致性模式
+     */
+    public <T> void update(String index, String type, String id, T object, ESDocumentCodec<? super T> codec, ESConsistency mode) throws Exception {
+        byte[] source = ESCodecs.encode(codec, object);
+        if (noopCache.isUnchanged(index, type, id, source)) {
+            return;
+        }
+        long ticket = noopCache.beginWrite(index, type, id);
+        UpdateRequest updateRequest = new UpdateRequest(index, type, id)
+                .doc(source, XContentType.JSON).setRefreshPolicy(mode.getRefreshPolicy());
+        client.update(updateRequest).get();
+        afterUpdate(index, type, id, new String(source, StandardCharsets.UTF_8), mode, ticket);
     }
 
     /**
@@ -200,6 +457,7 @@ public class ESUtil {
      */
     public void deleteData(String index, String type, String _id) throws Exception {
         client.prepareDelete(index, type, _id).get();
+        evict(index, type, _id);
     }
 
     /**
@@ -213,6 +471,7 @@ public class ESUtil {
         BulkByScrollResponse response = DeleteByQueryAction.INSTANCE.newRequestBuilder(client)
                 .filter(builder.listBuilders()).source(index)
                 .get();
+        evictIndex(index);
         return response.getDeleted();
     }
 
@@ -227,6 +486,7 @@ public class ESUtil {
         BulkByScrollResponse response = DeleteByQueryAction.INSTANCE.newRequestBuilder(client)
                 .filter(queryBuilder).source(index)
                 .get();
+        evictIndex(index);
         return response.getDeleted();
     }
 
@@ -245,6 +505,7 @@ public class ESUtil {
             );
         });
         bulkRequest.get();
+        data.keySet().forEach(_id -> evict(index, type, _id));
     }
 
     /**
@@ -261,6 +522,56 @@ public class ESUtil {
             );
         });
         bulkRequest.get();
+        evictQueries(index);
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param data  (_id 主键, 实体)
+     * @param codec 文档编码器
+     */
+    public <T> void bulkInsertData(String index, String type, Map<String, T> data, ESDocumentCodec<? super T> codec) throws Exception {
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (Map.Entry<String, T> entry : data.entrySet()) {
+            bulkRequest.add(client.prepareIndex(index, type, entry.getKey())
+                    .setSource(ESCodecs.encode(codec, entry.getValue()), XContentType.JSON)
+            );
+        }
+        bulkRequest.get();
+        data.keySet().forEach(_id -> evict(index, type, _id));
+    }
+
+    /**
+     * 批量插入数据
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param data  批量数据
+     * @param codec 文档编码器
+     */
+    public <T> void bulkInsertData(String index, String type, List<T> data, ESDocumentCodec<? super T> codec) throws Exception {
+        BulkRequestBuilder bulkRequest = client.prepareBulk();
+        for (T item : data) {
+            bulkRequest.add(client.prepareIndex(index, type)
+                    .setSource(ESCodecs.encode(codec, item), XContentType.JSON)
+            );
+        }
+        bulkRequest.get();
+        evictQueries(index);
+    }
+
+    /**
+     * 开启批量导入会话, 导入期间关闭刷新和副本, 关闭会话时恢复
+     *
+     * @param index          索引名
+     * @param type           类型
+     * @param maxNumSegments 导入完成后force merge的目标段数, 小于1不合并
+     */
+    public ESBulkLoadSession openBulkLoad(String index, String type, int maxNumSegments) {
+        return new ESBulkLoadSession(client, index, type, maxNumSegments, () -> evictIndex(index));
     }
 
     /**
@@ -271,7 +582,18 @@ public class ESUtil {
      * @param _id   主键
      */
     public String searchById(String index, String type, String _id) throws Exception {
-        return client.prepareGet(index, type, _id).get().getSourceAsString();
+        Map<String, Object> recent = sessionOverlay.get(index, type, _id);
+        if (recent != null) {
+            return JSON.toJSONString(recent);
+        }
+        String cached = documentCache.get(index, type, _id);
+        if (cached != null) {
+            return cached;
+        }
+        long stamp = documentCache.begin();
+        GetResponse response = get(index, type, _id);
+        recordRead(index, type, _id, response, stamp);
+        return response.getSourceAsString();
     }
 
     /**
@@ -282,7 +604,118 @@ public class ESUtil {
      * @param _id   主键
      */
     public Map<String, Object> searchMapById(String index, String type, String _id) throws Exception {
-        return client.prepareGet(index, type, _id).get().getSourceAsMap();
+        Map<String, Object> recent = sessionOverlay.get(index, type, _id);
+        if (recent != null) {
+            return recent;
+        }
+        String cached = documentCache.get(index, type, _id);
+        if (cached != null) {
+            return JSON.parseObject(cached);
+        }
+        long stamp = documentCache.begin();
+        GetResponse response = get(index, type, _id);
+        recordRead(index, type, _id, response, stamp);
+        return response.getSourceAsMap();
+    }
+
+    /**
+     * 批量查询, 多个互不相关的查询合并为一次msearch
+     *
+     * @param specs 查询列表
+     * @return 与 specs 一一对应的结果, 单个查询失败不影响其他查询
+     */
+    public List<ESSearchResult> multiSearch(List<ESSearchSpec> specs) {
+        if (specs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        MultiSearchRequestBuilder request = client.prepareMultiSearch();
+        for (ESSearchSpec spec : specs) {
+            SearchSourceBuilder source = spec.getSource();
+            if (source.size() > MAX) {
+                //不修改调用方的查询
+                source = source.copyWithNewSlice(source.slice()).size(MAX);
+            }
+            SearchRequestBuilder searchRequestBuilder = client.prepareSearch(spec.getIndex()).setSource(source);
+            if (spec.getType() != null) {
+                searchRequestBuilder.setTypes(spec.getType());
+            }
+            request.add(searchRequestBuilder);
+        }
+        MultiSearchResponse.Item[] items = request.get().getResponses();
+        List<ESSearchResult> results = new ArrayList<>(items.length);
+        for (MultiSearchResponse.Item item : items) {
+            results.add(item.isFailure() ? ESSearchResult.failed(item.getFailureMessage()) : ESSearchResult.of(item.getResponse()));
+        }
+        return results;
+    }
+
+    /**
+     * 按id批量查询, 一次mget
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param ids   主键
+     * @return _id -> _source, 按传入顺序, 不存在或查询失败的id不返回(失败记录日志), 整个请求失败时抛出异常
+     */
+    public Map<String, String> searchByIds(String index, String type, Collection<String> ids) throws Exception {
+        Map<String, String> sources = new LinkedHashMap<>();
+        List<ESDocKey> misses = new ArrayList<>();
+        for (String _id : ids) {
+            Map<String, Object> recent = sessionOverlay.get(index, type, _id);
+            String cached = recent != null ? JSON.toJSONString(recent) : documentCache.get(index, type, _id);
+            //先占位保持顺序
+            sources.put(_id, cached);
+            if (cached == null) {
+                misses.add(new ESDocKey(index, type, _id));
+            }
+        }
+        if (!misses.isEmpty()) {
+            long stamp = documentCache.begin();
+            List<MultiGetItemResponse> items = multiGet(misses).get(getBatchTimeoutMs, TimeUnit.MILLISECONDS);
+            for (MultiGetItemResponse item : items) {
+                if (item.isFailed()) {
+                    logger.error("get data failed, id:{} msg:{}", item.getId(), item.getFailure().getMessage());
+                    continue;
+                }
+                GetResponse response = item.getResponse();
+                recordRead(index, type, item.getId(), response, stamp);
+                sources.put(item.getId(), response.getSourceAsString());
+            }
+        }
+        sources.values().removeIf(Objects::isNull);
+        return sources;
+    }
+
+    /**
+     * 按id查询, 合并窗口内的查询合并为一次mget
+     */
+    private GetResponse get(String index, String type, String _id) throws Exception {
+        if (getBatchWindowMs <= 0) {
+            return client.prepareGet(index, type, _id).get();
+        }
+        try {
+            return responseOf(getLoader.load(new ESDocKey(index, type, _id)).get(getBatchTimeoutMs, TimeUnit.MILLISECONDS));
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    private CompletableFuture<List<MultiGetItemResponse>> multiGet(List<ESDocKey> keys) {
+        MultiGetRequestBuilder request = client.prepareMultiGet();
+        for (ESDocKey key : keys) {
+            request.add(key.getIndex(), key.getType(), key.getId());
+        }
+        CompletableFuture<MultiGetResponse> future = new CompletableFuture<>();
+        request.execute(ActionListener.wrap(future::complete, future::completeExceptionally));
+        return future.thenApply(response -> Arrays.asList(response.getResponses()));
+    }
+
+    private static GetResponse responseOf(MultiGetItemResponse item) {
+        if (item.isFailed()) {
+            throw new ElasticsearchException(item.getFailure().getMessage(), item.getFailure().getFailure());
+        }
+        return item.getResponse();
     }
 
     /**
@@ -291,18 +724,57 @@ public class ESUtil {
      * @param index   索引名
      * @param type    类型
      * @param builder 查询构造
+     * @return 只读列表, 缓存期内与其他调用方共享
      */
     public List<String> search(String index, String type, ESQueryBuilder builder) throws Exception {
-        List<String> result = new ArrayList<>();
-        SearchRequestBuilder searchRequestBuilder = createSearchRequestBuilder(index, type, builder)
-                .addSort(createSortBuilder(builder));
-        SearchResponse sr = searchRequestBuilder.execute().actionGet();
-        SearchHits hits = sr.getHits();
-        SearchHit[] searchHists = hits.getHits();
-        for (SearchHit sh : searchHists) {
-            result.add(sh.getSourceAsString());
+        SearchRequestBuilder searchRequestBuilder = createSearchRequestBuilder(index, type, builder);
+        FieldSortBuilder sortBuilder = createSortBuilder(builder);
+        String query = ESQueryCache.canonical(type, builder.listBuilders(), sortBuilder, builder.getFrom(), builder.getSize());
+        return queryCache.get(index, query,
+                () -> singleFlight.execute(index + '|' + query,
+                        () -> sourcesOf(searchRequestBuilder.addSort(sortBuilder).execute().actionGet())),
+                ESQueryCache::weigh);
+    }
+
+    /**
+     * 查询并解码为目标类型, 只返回目标类需要的字段
+     *
+     * @param index      索引名
+     * @param type       类型
+     * @param builder    查询构造
+     * @param resultType 目标类型, 见 {@link ESProjection}
+     */
+    public <T> List<T> search(String index, String type, ESQueryBuilder builder, Class<T> resultType) throws Exception {
+        ESProjection<T> projection = ESProjection.of(resultType);
+        SearchResponse sr = createSearchRequestBuilder(index, type, builder)
+                .setFetchSource(projection.getIncludes(), Strings.EMPTY_ARRAY)
+                .addSort(createSortBuilder(builder))
+                .execute().actionGet();
+        return decode(sr, projection);
+    }
+
+    /**
+     * 分页查询并解码为目标类型, 只返回目标类需要的字段
+     *
+     * @param index      索引名
+     * @param type       类型
+     * @param resultType 目标类型, 见 {@link ESProjection}
+     */
+    public <T> List<T> search(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, Integer from, Integer size,
+                              Class<T> resultType) throws Exception {
+        ESProjection<T> projection = ESProjection.of(resultType);
+        SearchResponse sr = prepareSearchResponse(index, type, queryBuilder, sortBuilder, projection.getIncludes(), from, size)
+                .execute().actionGet();
+        return decode(sr, projection);
+    }
+
+    static <T> List<T> decode(SearchResponse sr, ESProjection<T> projection) {
+        SearchHit[] hits = sr.getHits().getHits();
+        List<T> ret = new ArrayList<>(hits.length);
+        for (SearchHit hit : hits) {
+            ret.add(projection.decode(hit));
         }
-        return result;
+        return ret;
     }
 
     /**
@@ -324,6 +796,14 @@ public class ESUtil {
      */
     public SearchResponse searchResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, String[] includes, Integer from, Integer size)
             throws Exception {
+        //同时发起的相同查询共享一次请求
+        String query = ESQueryCache.canonical(type, queryBuilder, sortBuilder, Arrays.toString(includes), from, size);
+        return singleFlight.execute(index + '|' + query,
+                () -> prepareSearchResponse(index, type, queryBuilder, sortBuilder, includes, from, size).execute().actionGet());
+    }
+
+    SearchRequestBuilder prepareSearchResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, String[] includes,
+                                               Integer from, Integer size) {
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type).setQuery(queryBuilder);
         if (includes != null && includes.length > 0) {
             searchRequestBuilder.setFetchSource(includes, Strings.EMPTY_ARRAY);
@@ -340,8 +820,98 @@ public class ESUtil {
         if (from != null) {
             searchRequestBuilder.setFrom(from);
         }
-        SearchResponse sr = searchRequestBuilder.execute().actionGet();
-        return sr;
+        return searchRequestBuilder;
+    }
+
+    /**
+     * 游标分页查询(search_after), 不统计总数
+     *
+     * @see #searchAfter(String, String, QueryBuilder, SortBuilder, String[], int, String, boolean)
+     */
+    public ESCursorPage<SearchHit> searchAfter(String index, String type, QueryBuilder queryBuilder, SortBuilder<?> sortBuilder, String[] includes,
+                                               int size, String cursor) {
+        return searchAfter(index, type, queryBuilder, sortBuilder, includes, size, cursor, false);
+    }
+
+    /**
+     * 游标分页查询(search_after), 不受 from+size 上限限制, 每页开销与页码无关
+     * <p>
+     * 排序最后追加唯一字段作为 tie-breaker, 保证翻页时结果不重复不遗漏; 默认为文档中id字段的keyword子字段, 各索引的文档须包含该字段.
+     * 统计总数时并发发送一个 size=0 的计数请求, 每个分片最多计数到 track-total-hits 阈值, 超过阈值时总数为下限(gte)
+     *
+     * @param index       索引名
+     * @param type        类型
+     * @param sortBuilder 排序, 为空时只按 tie-breaker 排序
+     * @param includes    返回字段, 为空返回全部
+     * @param size        每页条数
+     * @param cursor      上一页返回的游标, 为空查询第一页
+     * @param withTotal   是否统计总数
+     */
+    public ESCursorPage<SearchHit> searchAfter(String index, String type, QueryBuilder queryBuilder, SortBuilder<?> sortBuilder, String[] includes,
+                                               int size, String cursor, boolean withTotal) {
+        String query = ESQueryCache.canonical(type, queryBuilder, sortBuilder, Arrays.toString(includes), size, cursor, withTotal);
+        try {
+            return queryCache.get(index, query,
+                    () -> singleFlight.execute(index + '|' + query,
+                            () -> doSearchAfter(index, type, queryBuilder, sortBuilder, includes, size, cursor, withTotal)),
+                    page -> {
+                        int weight = 0;
+                        for (SearchHit hit : page.getContent()) {
+                            weight += hit.getSourceRef() == null ? 0 : hit.getSourceRef().length();
+                        }
+                        return weight;
+                    });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ElasticsearchException(e);
+        }
+    }
+
+    private ESCursorPage<SearchHit> doSearchAfter(String index, String type, QueryBuilder queryBuilder, SortBuilder<?> sortBuilder, String[] includes,
+                                                  int size, String cursor, boolean withTotal) {
+        size = Math.max(1, Math.min(size, MAX - 1));
+        SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type)
+                .setQuery(queryBuilder)
+                //多取一条用于判断是否有下一页
+                .setSize(size + 1)
+                .setTrackTotalHits(false);
+        if (includes != null && includes.length > 0) {
+            searchRequestBuilder.setFetchSource(includes, Strings.EMPTY_ARRAY);
+        }
+        if (sortBuilder != null) {
+            searchRequestBuilder.addSort(sortBuilder);
+        }
+        if (!(sortBuilder instanceof FieldSortBuilder && tieBreaker.equals(((FieldSortBuilder) sortBuilder).getFieldName()))) {
+            searchRequestBuilder.addSort(tieBreaker, SortOrder.ASC);
+        }
+        Object[] after = ESCursor.decode(cursor);
+        if (after != null) {
+            searchRequestBuilder.searchAfter(after);
+        }
+        ActionFuture<SearchResponse> count = withTotal ? prepareCount(index, type, queryBuilder, trackTotalHitsThreshold).execute() : null;
+        SearchHit[] hits = searchRequestBuilder.get().getHits().getHits();
+        Long total = null;
+        String relation = null;
+        if (count != null) {
+            ESCount countResult = ESCount.of(count.actionGet());
+            total = countResult.getValue();
+            relation = countResult.getRelation();
+        }
+        if (hits.length <= size) {
+            return new ESCursorPage<>(Arrays.asList(hits), null, total, relation);
+        }
+        return new ESCursorPage<>(Arrays.asList(hits).subList(0, size), ESCursor.encode(hits[size - 1].getSortValues()), total, relation);
+    }
+
+    /**
+     * 游标分页查询, 使用 builder 的条件、排序、size 和 cursor
+     *
+     * @return 每条记录的 _source
+     */
+    public ESCursorPage<String> searchAfter(String index, String type, ESQueryBuilder builder) {
+        return searchAfter(index, type, builder.listBuilders(), createSortBuilder(builder), null, builder.getSize(), builder.getCursor())
+                .map(SearchHit::getSourceAsString);
     }
 
     /**
@@ -349,6 +919,10 @@ public class ESUtil {
      */
     public SearchResponse scrollSearchPrepare(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, Integer size, Long keepAlive)
             throws Exception {
+        return prepareScrollSearch(index, type, queryBuilder, sortBuilder, size, keepAlive).execute().actionGet();
+    }
+
+    SearchRequestBuilder prepareScrollSearch(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, Integer size, Long keepAlive) {
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type).setQuery(queryBuilder);
         if (sortBuilder != null) {
             searchRequestBuilder.addSort(sortBuilder);
@@ -359,8 +933,7 @@ public class ESUtil {
             searchRequestBuilder.setSize(size);
         }
         searchRequestBuilder.setSearchType(SearchType.QUERY_THEN_FETCH).setScroll(new TimeValue(keepAlive));
-        SearchResponse sr = searchRequestBuilder.execute().actionGet();
-        return sr;
+        return searchRequestBuilder;
     }
 
     /**
@@ -381,6 +954,12 @@ public class ESUtil {
      */
     public LinkedHashMap<String, Long> searchAggResponse(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, String groupBy,
                                                          String script, Integer from, Integer size, Integer shardSize) throws Exception {
+        SearchResponse sr = prepareAggSearch(index, type, queryBuilder, sortBuilder, groupBy, script, from, size, shardSize).execute().actionGet();
+        return termsCountOf(sr);
+    }
+
+    SearchRequestBuilder prepareAggSearch(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, String groupBy,
+                                          String script, Integer from, Integer size, Integer shardSize) {
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type).setQuery(queryBuilder);
         if (sortBuilder != null) {
             searchRequestBuilder.addSort(sortBuilder);
@@ -399,7 +978,10 @@ public class ESUtil {
         if (from != null) {
             searchRequestBuilder.setFrom(from);
         }
-        SearchResponse sr = searchRequestBuilder.execute().actionGet();
+        return searchRequestBuilder;
+    }
+
+    static LinkedHashMap<String, Long> termsCountOf(SearchResponse sr) {
         LinkedHashMap<String, Long> map = new LinkedHashMap<>();
         if (sr == null || sr.getHits().getTotalHits() == 0) {
             logger.error("searchAggResponse return empty");
@@ -787,10 +1369,14 @@ public class ESUtil {
      */
     public Map<String, Long> aggAlarmCountByDay(String index, String type, DateHistogramAggregationBuilder field, QueryBuilder builder)
             throws Exception {
-        SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type).setQuery(builder);
+        SearchResponse response = client.prepareSearch(index).setTypes(type).setQuery(builder)
+                .addAggregation(field).setSize(0)
+                .execute().actionGet();
+        return histogramCountOf(response);
+    }
+
+    static Map<String, Long> histogramCountOf(SearchResponse response) {
         Map<String, Long> map = Maps.newLinkedHashMap();
-        searchRequestBuilder.addAggregation(field).setSize(0);
-        SearchResponse response = searchRequestBuilder.execute().actionGet();
         Histogram histogram = response.getAggregations().get("alarmCount");
         for (Histogram.Bucket entry : histogram.getBuckets()) {
             String keyAsString = entry.getKeyAsString();
@@ -801,44 +1387,252 @@ public class ESUtil {
     }
 
     /**
-     * 查询并聚合
+     * 流式滚动查询, 按 _doc 顺序读取所有命中记录, 后台预取下一页
+     * <p>
+     * 使用完毕(包括提前结束)必须关闭, 以释放服务端scroll上下文
+     *
+     * @param index    索引名
+     * @param type     类型
+     * @param includes 返回字段, 为空返回全部
+     * @param pageSize 每页条数
+     */
+    public ESScrollIterator scroll(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize) {
+        return new ESScrollIterator(client, prepareDocScroll(index, type, queryBuilder, includes, pageSize),
+                TimeValue.timeValueMillis(scrollKeepAliveMs), scrollPrefetchPages);
+    }
+
+    private SearchRequestBuilder prepareDocScroll(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize) {
+        SearchRequestBuilder search = client.prepareSearch(index).setTypes(type)
+                .setQuery(queryBuilder)
+                .addSort("_doc", SortOrder.ASC)
+                .setSize(pageSize);
+        if (includes != null) {
+            search.setFetchSource(includes, null);
+        }
+        return search;
+    }
+
+    /**
+     * 分片滚动查询, 多个slice并发读取后合并, 顺序不保证
+     * <p>
+     * 使用完毕(包括提前结束)必须关闭
+     *
+     * @param index    索引名
+     * @param type     类型
+     * @param includes 返回字段, 为空返回全部
+     * @param pageSize 每个slice每页条数
+     * @param slices   slice数, 小于1时取索引主分片数
+     */
+    public ESSlicedScroll slicedScroll(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize, int slices) {
+        int max = slices < 1 ? shardCount(index) : slices;
+        return new ESSlicedScroll(slicePool, max, pageSize, max * scrollPrefetchPages,
+                slice -> new ESScrollIterator(client, prepareSlice(index, type, queryBuilder, includes, pageSize, slice, max),
+                        TimeValue.timeValueMillis(scrollKeepAliveMs), scrollPrefetchPages));
+    }
+
+    /**
+     * 分片滚动查询并归约, 每个slice在线程池中独立累加, 结束后合并
+     *
+     * @param slices      slice数, 小于1时取索引主分片数
+     * @param supplier    每个slice的初始结果
+     * @param accumulator 累加一条记录
+     * @param combiner    合并两个slice的结果
+     */
+    public <R> R slicedScroll(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize, int slices,
+                              Supplier<R> supplier, BiConsumer<R, SearchHit> accumulator, BinaryOperator<R> combiner) {
+        int max = slices < 1 ? shardCount(index) : slices;
+        return reduceSlices(max, slice -> prepareSlice(index, type, queryBuilder, includes, pageSize, slice, max), supplier, accumulator, combiner);
+    }
+
+    private <R> R reduceSlices(int max, IntFunction<SearchRequestBuilder> prepare,
+                               Supplier<R> supplier, BiConsumer<R, SearchHit> accumulator, BinaryOperator<R> combiner) {
+        //任一slice失败时通知其他slice提前结束
+        AtomicBoolean aborted = new AtomicBoolean();
+        List<CompletableFuture<R>> results = new ArrayList<>(max);
+        for (int i = 0; i < max; i++) {
+            int slice = i;
+            results.add(CompletableFuture.supplyAsync(() -> {
+                R result = supplier.get();
+                try (ESScrollIterator hits = new ESScrollIterator(client, prepare.apply(slice),
+                        TimeValue.timeValueMillis(scrollKeepAliveMs), scrollPrefetchPages)) {
+                    while (!aborted.get() && hits.hasNext()) {
+                        accumulator.accept(result, hits.next());
+                    }
+                } catch (RuntimeException e) {
+                    aborted.set(true);
+                    throw e;
+                }
+                return result;
+            }, slicePool));
+        }
+        return results.stream().map(CompletableFuture::join).reduce(combiner).orElseGet(supplier);
+    }
+
+    private SearchRequestBuilder prepareSlice(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize, int slice, int max) {
+        SearchRequestBuilder search = prepareDocScroll(index, type, queryBuilder, includes, pageSize);
+        //slice数为1时不需要切分
+        if (max > 1) {
+            search.slice(new SliceBuilder(slice, max));
+        }
+        return search;
+    }
+
+    /**
+     * 索引主分片数, 别名对应多个索引时取最大值
+     */
+    public int shardCount(String index) {
+        GetSettingsResponse response = client.admin().indices().prepareGetSettings(index).get();
+        int shards = 1;
+        for (ObjectObjectCursor<String, Settings> settings : response.getIndexToSettings()) {
+            shards = Math.max(shards, settings.value.getAsInt("index.number_of_shards", 1));
+        }
+        return shards;
+    }
+
+    /**
+     * 流式滚动查询, 关闭Stream时释放scroll
+     * <pre>
+     * try (Stream&lt;SearchHit&gt; hits = esUtil.scrollStream(index, type, query, null, 1000)) {
+     *     hits.forEach(...);
+     * }
+     * </pre>
+     */
+    public Stream<SearchHit> scrollStream(String index, String type, QueryBuilder queryBuilder, String[] includes, int pageSize) {
+        return scroll(index, type, queryBuilder, includes, pageSize).stream();
+    }
+
+    /**
+     * docvalue_fields 滚动查询, 不读取 _source, 每页返回一个列式结果, 关闭Stream时释放scroll
+     * <p>
+     * 字段必须有doc_values(keyword、数值、日期等), text字段使用其 .keyword 子字段
+     *
+     * @param fields   返回字段
+     * @param pageSize 每页条数
+     */
+    public Stream<ESColumns> scrollColumns(String index, String type, QueryBuilder queryBuilder, String[] fields, int pageSize) {
+        ESScrollIterator hits = new ESScrollIterator(client, docValues(prepareDocScroll(index, type, queryBuilder, null, pageSize), fields),
+                TimeValue.timeValueMillis(scrollKeepAliveMs), scrollPrefetchPages);
+        Iterator<ESColumns> pages = new Iterator<ESColumns>() {
+            @Override
+            public boolean hasNext() {
+                return hits.hasNext();
+            }
+
+            @Override
+            public ESColumns next() {
+                List<SearchHit> page = new ArrayList<>(pageSize);
+                while (page.size() < pageSize && hits.hasNext()) {
+                    page.add(hits.next());
+                }
+                if (page.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                return new ESColumns(fields, page);
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(hits::close);
+    }
+
+    /**
+     * docvalue_fields 分页查询, 不读取 _source, 返回列式结果
+     *
+     * @param fields 返回字段, 必须有doc_values
+     */
+    public ESColumns searchColumns(String index, String type, QueryBuilder queryBuilder, FieldSortBuilder sortBuilder, Integer from, Integer size,
+                                   String[] fields) {
+        SearchResponse response = docValues(prepareSearchResponse(index, type, queryBuilder, sortBuilder, null, from, size), fields)
+                .execute().actionGet();
+        return new ESColumns(fields, Arrays.asList(response.getHits().getHits()));
+    }
+
+    private static SearchRequestBuilder docValues(SearchRequestBuilder search, String[] fields) {
+        //数据节点不需要读取和解压存储的 _source
+        search.setFetchSource(false);
+        for (String field : fields) {
+            //按mapping中的格式返回, 避免6.x未指定格式的告警
+            search.addDocValueField(field, "use_field_mapping");
+        }
+        return search;
+    }
+
+    /**
+     * 查询并聚合, 按taskSerial分组统计targetSerial
      *
      * @param index 索引名
      * @param type  类型
      */
-    public ConcurrentHashMap<String, HashSet<String>> fetchAllRecordsByScrollId(String index, String type, QueryBuilder queryBuilder) {
+    public ESGroupBy fetchAllRecordsByScrollId(String index, String type, QueryBuilder queryBuilder) {
         //要将所有命中的记录取出，拿到他的taskSerial，最终统计有多少有效的TaskSerial，用来做分页的依据
-        ConcurrentHashMap<String, HashSet<String>> targetsByTask = new ConcurrentHashMap();
-        //指定一个index和type
-        SearchRequestBuilder search = client.prepareSearch(index).setTypes(type).setFetchSource(new String[]{"tarName", "tarIdentityId", "taskSerial", "targetSerial"}, null);
-        //使用原生排序优化性能
-        search.addSort("_doc", SortOrder.ASC);
-        //设置每批读取的数据量
-        search.setSize(100);
-        //默认是查询所有
-        search.setQuery(queryBuilder);
-        //设置 search context 维护1分钟的有效期
-        search.setScroll(TimeValue.timeValueMinutes(1));
-        //获得首次的查询结果
-        SearchResponse scrollResp = search.get();
-        do {
-            //读取结果集数据
-            for (SearchHit hit : scrollResp.getHits().getHits()) {
-                String key = hit.getSourceAsMap().get("taskSerial").toString(); //taskSerial作为key
-                if (targetsByTask.get(key) != null) {
-                    HashSet<String> targets = targetsByTask.get(key);
-                    targets.add(hit.getSourceAsMap().get("targetSerial").toString());
-                } else {
-                    HashSet<String> targets = Sets.newHashSet();
-                    targets.add(hit.getSourceAsMap().get("targetSerial").toString());
-                    targetsByTask.put(key, targets);
+        return groupByScroll(index, type, queryBuilder, "taskSerial.keyword", "targetSerial.keyword");
+    }
+
+    /**
+     * 滚动读取全部命中记录并分组去重, 两个字段从docvalue_fields读取, 不读取 _source;
+     * 没有doc_values的值(如keyword超过ignore_above)的记录在滚动结束后按id批量读取 _source 中对应字段,
+     * 两者都没有的记录跳过并记录日志
+     *
+     * @param keyField    分组字段
+     * @param memberField 成员字段
+     */
+    public ESGroupBy groupByScroll(String index, String type, QueryBuilder queryBuilder, String keyField, String memberField) {
+        String[] fields = {keyField, memberField};
+        Queue<ESDocKey> missing = new ConcurrentLinkedQueue<>();
+        //按分片数切分并发读取, 各slice结果合并
+        int max = shardCount(index);
+        ESGroupBy groupBy = reduceSlices(max, slice -> docValues(prepareSlice(index, type, queryBuilder, null, scrollPageSize, slice, max), fields),
+                ESGroupBy::new,
+                (group, hit) -> {
+                    Object key = ESColumns.valueOf(hit.field(keyField));
+                    Object member = ESColumns.valueOf(hit.field(memberField));
+                    if (key == null || member == null) {
+                        missing.add(new ESDocKey(hit.getIndex(), hit.getType(), hit.getId()));
+                        return;
+                    }
+                    group.add(key.toString(), member.toString());
+                },
+                //小的合并到大的
+                (left, right) -> left.getPairCount() >= right.getPairCount() ? left.merge(right) : right.merge(left));
+        if (!missing.isEmpty()) {
+            long skipped = groupBySource(groupBy, new ArrayList<>(missing), keyField, memberField);
+            if (skipped > 0) {
+                logger.warn("group by {}/{} skipped {} hits without {} or {}", index, keyField, skipped, keyField, memberField);
+            }
+        }
+        return groupBy;
+    }
+
+    /**
+     * 按id分批读取 _source 中的分组字段, keyword子字段回退到原字段
+     *
+     * @return 仍缺少字段的记录数
+     */
+    private long groupBySource(ESGroupBy groupBy, List<ESDocKey> keys, String keyField, String memberField) {
+        String[] sourceFields = {sourceField(keyField), sourceField(memberField)};
+        FetchSourceContext fetchSource = new FetchSourceContext(true, sourceFields, null);
+        long skipped = 0;
+        for (List<ESDocKey> batch : Lists.partition(keys, scrollPageSize)) {
+            MultiGetRequestBuilder request = client.prepareMultiGet();
+            for (ESDocKey key : batch) {
+                request.add(new MultiGetRequest.Item(key.getIndex(), key.getType(), key.getId()).fetchSourceContext(fetchSource));
+            }
+            for (MultiGetItemResponse item : request.get().getResponses()) {
+                GetResponse response = item.isFailed() ? null : item.getResponse();
+                Map<String, Object> source = response != null && response.isExists() ? response.getSourceAsMap() : null;
+                Object key = source == null ? null : XContentMapValues.extractValue(sourceFields[0], source);
+                Object member = source == null ? null : XContentMapValues.extractValue(sourceFields[1], source);
+                if (key == null || member == null) {
+                    skipped++;
+                    continue;
                 }
+                groupBy.add(key.toString(), member.toString());
             }
-            //将scorllId循环传递
-            scrollResp = client.prepareSearchScroll(scrollResp.getScrollId()).setScroll(TimeValue.timeValueMinutes(1)).execute().actionGet();
-            //当searchHits的数组为空的时候结束循环，至此数据全部读取完毕
-        } while (scrollResp.getHits().getHits().length != 0);
-        return targetsByTask;
+        }
+        return skipped;
+    }
+
+    private static String sourceField(String field) {
+        return field.endsWith(".keyword") ? field.substring(0, field.length() - ".keyword".length()) : field;
     }
 
     /**
@@ -846,17 +1640,23 @@ public class ESUtil {
      *
      * @param index 索引名
      * @param type  类型
+     * @return 只读列表, 缓存期内与其他调用方共享
      */
     public List<String> searchStr(String index, String type, QueryBuilder builder, FieldSortBuilder sortBuilder, Integer from, Integer size)
             throws Exception {
-        List<String> ret = new LinkedList<>();
-        SearchResponse sr = searchResponse(index, type, builder, sortBuilder, from, size);
-        SearchHits hits = sr.getHits();
-        SearchHit[] searchHists = hits.getHits();
+        return queryCache.get(index, ESQueryCache.canonical(type, builder, sortBuilder, from, size),
+                () -> sourcesOf(searchResponse(index, type, builder, sortBuilder, from, size)),
+                ESQueryCache::weigh);
+    }
+
+    static List<String> sourcesOf(SearchResponse sr) {
+        SearchHit[] searchHists = sr.getHits().getHits();
+        List<String> ret = new ArrayList<>(searchHists.length);
         for (SearchHit sh : searchHists) {
             ret.add(sh.getSourceAsString());
         }
-        return ret;
+        //结果可能被缓存共享, 不允许修改
+        return Collections.unmodifiableList(ret);
     }
 
     /**
@@ -866,10 +1666,7 @@ public class ESUtil {
      * @param type  类型
      */
     public long statCount(String index, String type, ESQueryBuilder builder) throws Exception {
-        SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type)
-                .setQuery(builder.listBuilders());
-        SearchResponse searchResponse = searchRequestBuilder.execute().actionGet();
-        return searchResponse.getHits().totalHits;
+        return statCount(index, type, builder.listBuilders());
     }
 
     /**
@@ -879,11 +1676,59 @@ public class ESUtil {
      * @param type  类型
      */
     public long statCount(String index, String type, QueryBuilder builder) throws Exception {
+        return count(index, type, builder, 0, false).getValue();
+    }
+
+    /**
+     * 计数, 不取回记录也不计算评分
+     *
+     * @param index     索引名
+     * @param type      类型
+     * @param threshold 每个分片的计数上限, 达到后提前结束, 小于等于0时精确统计
+     * @param cached    是否使用查询结果缓存(短时间内可能读到旧值)
+     */
+    public ESCount count(String index, String type, QueryBuilder builder, int threshold, boolean cached) throws Exception {
+        if (!cached) {
+            return ESCount.of(prepareCount(index, type, builder, threshold).get());
+        }
+        String query = ESQueryCache.canonical("count", type, builder, threshold);
+        return queryCache.get(index, query,
+                () -> singleFlight.execute(index + '|' + query,
+                        () -> ESCount.of(prepareCount(index, type, builder, threshold).get())),
+                result -> 32);
+    }
+
+    /**
+     * 是否有命中记录, 任一分片命中一条即结束
+     *
+     * @param index 索引名
+     * @param type  类型
+     */
+    public boolean exists(String index, String type, QueryBuilder builder) {
+        return existsOf(prepareExists(index, type, builder).get());
+    }
+
+    public boolean exists(String index, String type, ESQueryBuilder builder) {
+        return exists(index, type, builder.listBuilders());
+    }
+
+    SearchRequestBuilder prepareCount(String index, String type, QueryBuilder builder, int threshold) {
+        //过滤上下文, 不计算评分
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type)
-                .setQuery(builder)
+                .setQuery(QueryBuilders.constantScoreQuery(builder == null ? QueryBuilders.matchAllQuery() : builder))
                 .setSize(0);
-        SearchResponse searchResponse = searchRequestBuilder.execute().actionGet();
-        return searchResponse.getHits().totalHits;
+        if (threshold > 0) {
+            searchRequestBuilder.setTerminateAfter(threshold);
+        }
+        return searchRequestBuilder;
+    }
+
+    SearchRequestBuilder prepareExists(String index, String type, QueryBuilder builder) {
+        return prepareCount(index, type, builder, 1);
+    }
+
+    static boolean existsOf(SearchResponse response) {
+        return response.getHits().getTotalHits() > 0;
     }
 
     /**
@@ -898,6 +1743,10 @@ public class ESUtil {
                 .addSort(createSortBuilder(builder));
         searchRequestBuilder.setSize(1);
         SearchResponse searchResponse = searchRequestBuilder.get();
+        return firstSourceOf(searchResponse);
+    }
+
+    static String firstSourceOf(SearchResponse searchResponse) {
         SearchHits hits = searchResponse.getHits();
         SearchHit[] searchHists = hits.getHits();
         if (searchHists.length == 0) {
@@ -944,6 +1793,11 @@ public class ESUtil {
      */
     public List<InternalDateHistogram.Bucket> aggByDateHistogram(String index, String type, QueryBuilder builder, ESQueryBuilder.DateHistogram dh)
             throws Exception {
+        SearchResponse sr = prepareDateHistogram(index, type, builder, dh).get();
+        return dateBucketsOf(sr);
+    }
+
+    SearchRequestBuilder prepareDateHistogram(String index, String type, QueryBuilder builder, ESQueryBuilder.DateHistogram dh) {
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type);
         searchRequestBuilder.setQuery(builder);
         DateHistogramAggregationBuilder dhab = AggregationBuilders
@@ -965,7 +1819,10 @@ public class ESUtil {
         }
         searchRequestBuilder.addAggregation(dhab);
         searchRequestBuilder.setSize(0);
-        SearchResponse sr = searchRequestBuilder.get();
+        return searchRequestBuilder;
+    }
+
+    static List<InternalDateHistogram.Bucket> dateBucketsOf(SearchResponse sr) {
         List<InternalDateHistogram.Bucket> buckets = ((InternalDateHistogram) sr.getAggregations().get("agg")).getBuckets();
         return buckets;
     }
@@ -978,7 +1835,7 @@ public class ESUtil {
      * @param builder
      * @return
      */
-    private SearchRequestBuilder createSearchRequestBuilder(String index, String type, ESQueryBuilder builder) throws Exception {
+    SearchRequestBuilder createSearchRequestBuilder(String index, String type, ESQueryBuilder builder) throws Exception {
         SearchRequestBuilder searchRequestBuilder = client.prepareSearch(index).setTypes(type);
         searchRequestBuilder.setQuery(builder.listBuilders());
         int size = builder.getSize();
@@ -1002,7 +1859,7 @@ public class ESUtil {
      * @param queryBuilder
      * @return
      */
-    private FieldSortBuilder createSortBuilder(ESQueryBuilder queryBuilder) {
+    FieldSortBuilder createSortBuilder(ESQueryBuilder queryBuilder) {
         FieldSortBuilder sortBuilder = null;
         if (queryBuilder.getAsc() != null && queryBuilder.getAsc().length() > 0) {
             sortBuilder = new FieldSortBuilder(queryBuilder.getAsc());
@@ -1017,10 +1874,89 @@ public class ESUtil {
         return sortBuilder;
     }
 
+    /**
+     * 不经过本类的写入(Spring Data repository/template等)成功后调用, 清除该文档的客户端缓存
+     *
+     * @param index 索引名
+     * @param type  类型
+     * @param _id   数据id
+     */
+    public void invalidate(String index, String type, String _id) {
+        evict(index, type, _id);
+    }
+
+    /**
+     * 写入后清除该文档的客户端缓存
+     */
+    void evict(String index, String type, String _id) {
+        noopCache.invalidate(index, type, _id);
+        evictCached(index, type, _id);
+    }
+
+    /**
+     * 清除除内容摘要外的缓存, 摘要由写入方按序号记录
+     */
+    void evictCached(String index, String type, String _id) {
+        sessionOverlay.invalidate(index, type, _id);
+        documentCache.invalidate(index, type, _id);
+        queryCache.invalidateIndex(index);
+    }
+
+    /**
+     * 按条件写入后清除该索引的客户端缓存
+     */
+    void evictIndex(String index) {
+        noopCache.invalidateIndex(index);
+        documentCache.invalidateIndex(index);
+        queryCache.invalidateIndex(index);
+    }
+
+    /**
+     * 按id读取后回填文档缓存; 读取结果与更新内容的序列化方式不同, 不记录内容摘要
+     *
+     * @param stamp 读取前 {@link ESDocumentCache#begin()} 的返回值
+     */
+    void recordRead(String index, String type, String _id, GetResponse response, long stamp) {
+        if (response.isExists()) {
+            documentCache.fill(index, type, _id, response.getSourceAsString(), stamp);
+        }
+    }
+
+    /**
+     * 写入新文档(无id)后清除该索引的查询结果缓存
+     */
+    void evictQueries(String index) {
+        queryCache.invalidateIndex(index);
+    }
+
+    ESDocumentCache getDocumentCache() {
+        return documentCache;
+    }
+
+    ESSessionOverlay getSessionOverlay() {
+        return sessionOverlay;
+    }
+
+    /**
+     * 被合并的相同查询数
+     */
+    public long getCollapsedSearches() {
+        return singleFlight.getCollapsed();
+    }
+
+    /**
+     * 跳过的无变化更新次数
+     */
+    public long getSkippedUpdates() {
+        return noopCache.getSkipped();
+    }
+
     /**
      * 关闭链接
      */
     public void close() {
+        getLoader.close();
+        slicePool.shutdownNow();
         client.close();
     }
 
@@ -0,0 +1,100 @@
+package com.neo.apt;
+
+import com.neo.model.CustomerCriteria;
+import com.neo.model.CustomerCriteriaESQueryBuilder;
+import com.neo.util.ESQueryBuilder;
+import org.junit.Test;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ESQueryProcessorTest {
+
+    @Test
+    public void generatedClausesMatchReflection() {
+        CustomerCriteria criteria = new CustomerCriteria();
+        criteria.setUserName("summer");
+        criteria.setAddress("北京");
+        criteria.setAgeRange(new Integer[]{20, 30});
+        criteria.setIds(Arrays.asList("1", "2"));
+        assertEquals(4, CustomerCriteriaESQueryBuilder.clauses(criteria).size());
+        assertEquals(new ESQueryBuilder().setQueryBuilder(criteria).listBuilders().toString(),
+                CustomerCriteriaESQueryBuilder.of(criteria).listBuilders().toString());
+    }
+
+    @Test
+    public void generatedClausesSkipEmptyValues() {
+        CustomerCriteria criteria = new CustomerCriteria();
+        criteria.setUserName("-1");
+        criteria.setAgeRange(new Integer[]{20});
+        assertEquals(1, CustomerCriteriaESQueryBuilder.clauses(criteria).size());
+        assertEquals(new ESQueryBuilder().setQueryBuilder(criteria).listBuilders().toString(),
+                CustomerCriteriaESQueryBuilder.of(criteria).listBuilders().toString());
+    }
+
+    @Test
+    public void termsRequiresCollection() throws IOException {
+        List<String> errors = compile("public class Bad { @ESQuery(type = ESQueryType.TERMS) public String ids; }");
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("requires a java.util.Collection field")));
+    }
+
+    @Test
+    public void rangeRequiresArray() throws IOException {
+        List<String> errors = compile("public class Bad { @ESQuery(type = ESQueryType.RANGE) public Integer age; }");
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("requires an array field")));
+    }
+
+    @Test
+    public void privateFieldRequiresGetter() throws IOException {
+        List<String> errors = compile("public class Bad { @ESQuery private String name; }");
+        assertTrue(errors.toString(), errors.stream().anyMatch(e -> e.contains("has no accessible getter")));
+    }
+
+    @Test
+    public void validClassCompiles() throws IOException {
+        List<String> errors = compile("public class Good { @ESQuery private String name; public String getName() { return name; } }");
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * 只使用 ESQueryProcessor 编译一个类, 返回错误信息
+     */
+    private static List<String> compile(String body) throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assertFalse("tests must run on a JDK", compiler == null);
+        String name = body.split("class ")[1].split(" ")[0];
+        JavaFileObject source = new SimpleJavaFileObject(URI.create("string:///sample/" + name + ".java"), JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return "package sample;\nimport com.neo.util.ESQuery;\nimport com.neo.util.ESQueryType;\n" + body;
+            }
+        };
+        Path output = Files.createTempDirectory("es-query-processor");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", output.toString(), "-s", output.toString()),
+                null, Collections.singletonList(source));
+        task.setProcessors(Collections.singletonList(new ESQueryProcessor()));
+        task.call();
+        return diagnostics.getDiagnostics().stream()
+                .filter(d -> d.getKind() == Diagnostic.Kind.ERROR)
+                .map(d -> d.getMessage(null))
+                .collect(Collectors.toList());
+    }
+}
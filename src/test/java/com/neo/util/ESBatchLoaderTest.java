@@ -0,0 +1,102 @@
+package com.neo.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ESBatchLoaderTest {
+
+    //记录每次批量查询的key
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    private final Function<List<String>, CompletableFuture<List<String>>> upperCase = keys -> {
+        batches.add(new ArrayList<>(keys));
+        List<String> values = new ArrayList<>();
+        keys.forEach(key -> values.add(key.toUpperCase()));
+        return CompletableFuture.completedFuture(values);
+    };
+
+    @Test
+    public void loadsInWindowShareOneBatch() throws Exception {
+        try (ESBatchLoader<String, String> loader = new ESBatchLoader<>("test", upperCase, 50, 100)) {
+            CompletableFuture<String> a = loader.load("a");
+            CompletableFuture<String> b = loader.load("b");
+            assertEquals("A", a.get(5, TimeUnit.SECONDS));
+            assertEquals("B", b.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+    }
+
+    @Test
+    public void fullBatchDispatchedImmediately() throws Exception {
+        //窗口很长, 只有达到最大批量才会立即发送
+        try (ESBatchLoader<String, String> loader = new ESBatchLoader<>("test", upperCase, 60000, 2)) {
+            CompletableFuture<String> a = loader.load("a");
+            CompletableFuture<String> b = loader.load("b");
+            assertEquals("A", a.get(5, TimeUnit.SECONDS));
+            assertEquals("B", b.get(5, TimeUnit.SECONDS));
+            assertEquals(Collections.singletonList(Arrays.asList("a", "b")), batches);
+            CompletableFuture<String> c = loader.load("c");
+            assertFalse(c.isDone());
+        }
+        //关闭时发送剩余的查询
+        assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("c")), batches);
+    }
+
+    @Test
+    public void duplicateKeysQueriedOnce() throws Exception {
+        try (ESBatchLoader<String, String> loader = new ESBatchLoader<>("test", upperCase, 50, 100)) {
+            CompletableFuture<String> first = loader.load("a");
+            CompletableFuture<String> second = loader.load("a");
+            assertSame(first, second);
+            assertEquals("A", second.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(Collections.singletonList(Collections.singletonList("a")), batches);
+    }
+
+    @Test
+    public void batchFailureFailsEveryCaller() throws Exception {
+        IllegalStateException failure = new IllegalStateException("mget failed");
+        try (ESBatchLoader<String, String> loader = new ESBatchLoader<>("test", keys -> {
+            CompletableFuture<List<String>> future = new CompletableFuture<>();
+            future.completeExceptionally(failure);
+            return future;
+        }, 50, 100)) {
+            for (CompletableFuture<String> future : Arrays.asList(loader.load("a"), loader.load("b"))) {
+                try {
+                    future.get(5, TimeUnit.SECONDS);
+                    fail();
+                } catch (ExecutionException e) {
+                    assertSame(failure, e.getCause());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void loadAfterCloseFails() throws Exception {
+        ESBatchLoader<String, String> loader = new ESBatchLoader<>("test", upperCase, 50, 100);
+        loader.close();
+        try {
+            loader.load("a").get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertTrue(batches.isEmpty());
+    }
+}
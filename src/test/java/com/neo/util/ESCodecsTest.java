@@ -0,0 +1,98 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONObject;
+import com.alibaba.fastjson.annotation.JSONField;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ESCodecsTest {
+
+    public enum Level {
+        LOW, HIGH
+    }
+
+    public static class Address {
+        private String city;
+
+        private Level level;
+
+        public Address() {
+        }
+
+        Address(String city, Level level) {
+            this.city = city;
+            this.level = level;
+        }
+
+        public String getCity() {
+            return city;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+    }
+
+    public static class Person {
+        private String name;
+
+        private Address home;
+
+        private List<Address> history;
+
+        private Map<String, Address> named;
+
+        private int[] scores;
+
+        public String getName() {
+            return name;
+        }
+
+        @JSONField(name = "homeAddress")
+        public Address getHome() {
+            return home;
+        }
+
+        public List<Address> getHistory() {
+            return history;
+        }
+
+        public Map<String, Address> getNamed() {
+            return named;
+        }
+
+        public int[] getScores() {
+            return scores;
+        }
+    }
+
+    @Test
+    public void nestedBeansEncodedLikeFastjson() throws Exception {
+        Person person = new Person();
+        person.name = "neo";
+        person.home = new Address("北京", Level.HIGH);
+        person.history = Arrays.asList(new Address("西安", Level.LOW), new Address("秦皇岛", null));
+        person.named = Collections.singletonMap("work", new Address("上海", Level.LOW));
+        person.scores = new int[]{1, 2};
+        byte[] source = ESCodecs.encode(ESCodecs.forClass(Person.class), person);
+        JSONObject actual = JSON.parseObject(new String(source, StandardCharsets.UTF_8));
+        assertEquals(JSON.parseObject(JSON.toJSONString(person)), actual);
+    }
+
+    @Test
+    public void nullPropertiesSkipped() throws Exception {
+        byte[] source = ESCodecs.encode(ESCodecs.forClass(Person.class), new Person());
+        JSONObject actual = JSON.parseObject(new String(source, StandardCharsets.UTF_8));
+        assertFalse(actual.containsKey("homeAddress"));
+        assertEquals(0, actual.size());
+    }
+}
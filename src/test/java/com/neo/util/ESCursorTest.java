@@ -0,0 +1,68 @@
+package com.neo.util;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ESCursorTest {
+
+    @Test
+    public void roundTrip() {
+        Object[] sortValues = {1586822400000L, "北京", 7, true};
+        assertArrayEquals(sortValues, ESCursor.decode(ESCursor.encode(sortValues)));
+    }
+
+    @Test
+    public void cursorIsUrlSafe() {
+        String cursor = ESCursor.encode(new Object[]{"???>>>", "~~~"});
+        assertTrue(cursor, cursor.matches("[A-Za-z0-9_-]+"));
+    }
+
+    @Test
+    public void decimalBecomesDouble() {
+        Object[] decoded = ESCursor.decode(ESCursor.encode(new Object[]{1.5, "id"}));
+        assertEquals(Double.class, decoded[0].getClass());
+        assertEquals(1.5, (Double) decoded[0], 0);
+    }
+
+    @Test
+    public void bigIntegerBecomesLong() {
+        Object[] decoded = ESCursor.decode(ESCursor.encode(new Object[]{new BigInteger("18446744073709551615")}));
+        assertEquals(Long.class, decoded[0].getClass());
+        assertEquals(new BigInteger("18446744073709551615").longValue(), decoded[0]);
+    }
+
+    @Test
+    public void emptyValues() {
+        assertNull(ESCursor.encode(null));
+        assertNull(ESCursor.encode(new Object[0]));
+        assertNull(ESCursor.decode(null));
+        assertNull(ESCursor.decode(""));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBase64() {
+        ESCursor.decode("not a cursor!");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void notAnArray() {
+        ESCursor.decode(base64("{\"a\":1}"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void emptyArray() {
+        ESCursor.decode(base64("[]"));
+    }
+
+    private static String base64(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,74 @@
+package com.neo.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ESGroupByTest {
+
+    @Test
+    public void addDeduplicates() {
+        ESGroupBy groupBy = new ESGroupBy();
+        groupBy.add("t1", "a");
+        groupBy.add("t1", "a");
+        groupBy.add("t1", "b");
+        groupBy.add("t2", "a");
+        groupBy.add(null, "a");
+        groupBy.add("t3", null);
+        assertEquals(Arrays.asList("t1", "t2"), groupBy.getKeys());
+        assertEquals(2, groupBy.getGroupCount());
+        assertEquals(3, groupBy.getPairCount());
+        assertEquals(2, groupBy.count("t1"));
+        assertEquals(0, groupBy.count("t3"));
+        assertTrue(groupBy.contains("t2", "a"));
+        assertFalse(groupBy.contains("t2", "b"));
+        assertFalse(groupBy.containsKey("t3"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), groupBy.getMembers("t1"));
+        assertEquals(Collections.emptySet(), groupBy.getMembers("t3"));
+    }
+
+    @Test
+    public void mergeRemapsIds() {
+        //两边相同字符串的编码不同
+        ESGroupBy left = new ESGroupBy();
+        left.add("t1", "a");
+        left.add("t2", "b");
+        ESGroupBy right = new ESGroupBy();
+        right.add("t3", "c");
+        right.add("t2", "a");
+        right.add("t1", "b");
+        right.add("t1", "a");
+
+        assertTrue(left == left.merge(right));
+        assertEquals(Arrays.asList("t1", "t2", "t3"), left.getKeys());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), left.getMembers("t1"));
+        assertEquals(new HashSet<>(Arrays.asList("a", "b")), left.getMembers("t2"));
+        assertEquals(Collections.singleton("c"), left.getMembers("t3"));
+        //(t1, a) 两边都有, 只计一次
+        assertEquals(5, left.getPairCount());
+        assertFalse(left.contains("t3", "a"));
+    }
+
+    @Test
+    public void mergeEmpty() {
+        ESGroupBy groupBy = new ESGroupBy();
+        groupBy.add("t1", "a");
+        groupBy.merge(new ESGroupBy());
+        assertEquals(1, groupBy.getPairCount());
+        ESGroupBy empty = new ESGroupBy().merge(groupBy);
+        assertEquals(Collections.singleton("a"), empty.getMembers("t1"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void keysAreReadOnly() {
+        ESGroupBy groupBy = new ESGroupBy();
+        groupBy.add("t1", "a");
+        groupBy.getKeys().clear();
+    }
+}
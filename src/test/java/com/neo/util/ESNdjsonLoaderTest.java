@@ -0,0 +1,201 @@
+package com.neo.util;
+
+import com.alibaba.fastjson.JSON;
+import com.alibaba.fastjson.JSONArray;
+import com.alibaba.fastjson.JSONObject;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.RestClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ESNdjsonLoaderTest {
+
+    private static final byte[] ID = "id".getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer server;
+
+    private RestClient restClient;
+
+    private Path dir;
+
+    //每次bulk请求中的 _id 列表
+    private final List<List<String>> requests = new CopyOnWriteArrayList<>();
+
+    //按请求中的 _id 返回条目状态
+    private volatile Function<String, Integer> status = id -> 201;
+
+    @Before
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", exchange -> {
+            List<String> ids = new ArrayList<>();
+            String[] lines = new String(read(exchange.getRequestBody()), StandardCharsets.UTF_8).split("\n");
+            for (int i = 0; i < lines.length; i += 2) {
+                ids.add(JSON.parseObject(lines[i]).getJSONObject("index").getString("_id"));
+            }
+            requests.add(ids);
+            JSONArray items = new JSONArray();
+            boolean errors = false;
+            for (String id : ids) {
+                int code = status.apply(id);
+                errors |= code >= 300;
+                JSONObject item = new JSONObject();
+                item.put("_id", id);
+                item.put("status", code);
+                items.add(new JSONObject().fluentPut("index", item));
+            }
+            byte[] response = new JSONObject().fluentPut("took", 1).fluentPut("errors", errors).fluentPut("items", items)
+                    .toJSONString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, response.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(response);
+            }
+        });
+        server.start();
+        restClient = RestClient.builder(new HttpHost("localhost", server.getAddress().getPort())).build();
+        dir = Files.createTempDirectory("es-ndjson");
+    }
+
+    @After
+    public void stop() throws IOException {
+        restClient.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void findTopLevelId() {
+        assertEquals("\"1\"", id("{\"id\":\"1\",\"name\":\"a\"}", true));
+        assertEquals("42", id("{\"name\":\"a\", \"id\" : 42}", false));
+        //嵌套对象和数组中的id不算
+        assertEquals("top", id("{\"user\":{\"id\":\"nested\"},\"tags\":[{\"id\":1}],\"id\":\"top\"}", false));
+        //值为"id"的字符串不是字段名
+        assertEquals("2", id("{\"name\":\"id\",\"id\":2}", false));
+        //转义字符原样保留
+        assertEquals("a\\\"b\\\\c", id("{\"id\":\"a\\\"b\\\\c\"}", false));
+    }
+
+    @Test
+    public void noUsableId() {
+        assertNull(id("{\"name\":\"a\"}", false));
+        assertNull(id("{\"user\":{\"id\":\"nested\"}}", false));
+        assertNull(id("{\"id\":null}", false));
+        assertNull(id("{\"id\":{\"a\":1}}", false));
+        assertNull(id("{\"id\":[1]}", false));
+        assertNull(id("{\"id\":\"unterminated}", false));
+    }
+
+    @Test
+    public void loadWithIds() throws Exception {
+        Path file = write("{\"id\":\"a\"}", "{\"id\":\"b\"}", "{\"id\":\"c\"}");
+        assertEquals(3, loader().load(file));
+        assertEquals(Arrays.asList("a", "b", "c"), sentIds());
+        assertFalse(Files.exists(checkpoint(file)));
+    }
+
+    @Test
+    public void resumeFromCheckpoint() throws Exception {
+        String first = "{\"id\":\"a\"}";
+        Path file = write(first, "{\"id\":\"b\"}", "{\"id\":\"c\"}");
+        Files.write(checkpoint(file), Long.toString(first.length() + 1).getBytes(StandardCharsets.UTF_8));
+        assertEquals(2, loader().load(file));
+        assertEquals(Arrays.asList("b", "c"), sentIds());
+        assertFalse(Files.exists(checkpoint(file)));
+    }
+
+    @Test
+    public void retryRejectedItems() throws Exception {
+        List<String> rejected = new CopyOnWriteArrayList<>();
+        status = id -> !rejected.contains(id) && rejected.add(id) && "b".equals(id) ? 429 : 201;
+        Path file = write("{\"id\":\"a\"}", "{\"id\":\"b\"}", "{\"id\":\"c\"}");
+        assertEquals(3, loader().setMaxBulkBytes(1024).load(file));
+        //第二次只重发被拒绝的条目
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "c"), Arrays.asList("b")), requests);
+    }
+
+    @Test
+    public void permanentFailureKeepsCheckpoint() throws Exception {
+        status = id -> "b".equals(id) ? 400 : 201;
+        String first = "{\"id\":\"a\"}";
+        Path file = write(first, "{\"id\":\"b\"}", "{\"id\":\"c\"}");
+        try {
+            loader().load(file);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("offset " + (first.length() + 1)));
+        }
+        //只确认到失败之前
+        assertArrayEquals(Long.toString(first.length() + 1).getBytes(StandardCharsets.UTF_8), Files.readAllBytes(checkpoint(file)));
+        assertFalse(sentIds().contains("c"));
+    }
+
+    private ESNdjsonLoader loader() {
+        //每个文档一个bulk, 依次发送
+        return new ESNdjsonLoader(restClient, "customer", "customer")
+                .setIdField("id")
+                .setMaxBulkBytes(1)
+                .setPipelineDepth(1);
+    }
+
+    private List<String> sentIds() {
+        List<String> ids = new ArrayList<>();
+        requests.forEach(ids::addAll);
+        return ids;
+    }
+
+    private Path write(String... lines) throws IOException {
+        Path file = dir.resolve("data.ndjson");
+        Files.write(file, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Path checkpoint(Path file) {
+        return file.resolveSibling(file.getFileName() + ".checkpoint");
+    }
+
+    /**
+     * @param quoted 返回值是否包含引号
+     */
+    private static String id(String json, boolean quoted) {
+        byte[] line = json.getBytes(StandardCharsets.UTF_8);
+        int[] range = ESNdjsonLoader.findId(line, line.length, ID);
+        if (range == null) {
+            return null;
+        }
+        String id = new String(line, range[0], range[1] - range[0], StandardCharsets.UTF_8);
+        return quoted ? '"' + id + '"' : id;
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,63 @@
+package com.neo.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ESNoopCacheTest {
+
+    private ESNoopCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new ESNoopCache();
+        cache.init();
+    }
+
+    @Test
+    public void completedWriteSkipsSameContent() {
+        long ticket = cache.beginWrite("customer", "doc", "1");
+        cache.completeWrite("customer", "doc", "1", "{\"a\":1}", ticket);
+        assertTrue(cache.isUnchanged("customer", "doc", "1", "{\"a\":1}"));
+        assertTrue(cache.isUnchanged("customer", "doc", "1", "{\"a\":1}".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(cache.isUnchanged("customer", "doc", "1", "{\"a\":2}"));
+        assertEquals(2, cache.getSkipped());
+    }
+
+    @Test
+    public void staleReadDoesNotOverwriteNewerWrite() {
+        long stamp = cache.begin();
+        long ticket = cache.beginWrite("customer", "doc", "1");
+        cache.completeWrite("customer", "doc", "1", "{\"a\":2}", ticket);
+        //读取开始于写入之前, 结果可能是旧内容
+        cache.record("customer", "doc", "1", "{\"a\":1}", stamp);
+        assertFalse(cache.isUnchanged("customer", "doc", "1", "{\"a\":1}"));
+        assertTrue(cache.isUnchanged("customer", "doc", "1", "{\"a\":2}"));
+    }
+
+    @Test
+    public void outOfOrderWritesKeepLatest() {
+        long first = cache.beginWrite("customer", "doc", "1");
+        long second = cache.beginWrite("customer", "doc", "1");
+        cache.completeWrite("customer", "doc", "1", "{\"a\":2}", second);
+        cache.completeWrite("customer", "doc", "1", "{\"a\":1}", first);
+        assertFalse(cache.isUnchanged("customer", "doc", "1", "{\"a\":1}"));
+        assertTrue(cache.isUnchanged("customer", "doc", "1", "{\"a\":2}"));
+    }
+
+    @Test
+    public void indexInvalidationRejectsPendingWrites() {
+        long stamp = cache.begin();
+        long ticket = cache.beginWrite("customer", "doc", "1");
+        cache.invalidateIndex("customer");
+        cache.completeWrite("customer", "doc", "1", "{\"a\":1}", ticket);
+        cache.record("customer", "doc", "2", "{\"a\":1}", stamp);
+        assertFalse(cache.isUnchanged("customer", "doc", "1", "{\"a\":1}"));
+        assertFalse(cache.isUnchanged("customer", "doc", "2", "{\"a\":1}"));
+    }
+}
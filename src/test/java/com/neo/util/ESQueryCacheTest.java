@@ -0,0 +1,72 @@
+package com.neo.util;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ESQueryCacheTest {
+
+    @Test
+    public void boolClauseOrderIgnored() {
+        String left = ESQueryCache.canonical("customer", QueryBuilders.boolQuery()
+                .must(QueryBuilders.termQuery("address", "北京"))
+                .must(QueryBuilders.rangeQuery("age").lt(30))
+                .should(QueryBuilders.termQuery("userName", "a"))
+                .should(QueryBuilders.termQuery("userName", "b")), 0, 10);
+        String right = ESQueryCache.canonical("customer", QueryBuilders.boolQuery()
+                .should(QueryBuilders.termQuery("userName", "b"))
+                .must(QueryBuilders.rangeQuery("age").lt(30))
+                .should(QueryBuilders.termQuery("userName", "a"))
+                .must(QueryBuilders.termQuery("address", "北京")), 0, 10);
+        assertEquals(left, right);
+    }
+
+    @Test
+    public void termsValueOrderIgnored() {
+        assertEquals(ESQueryCache.canonical(QueryBuilders.termsQuery("_id", "1", "2", "3")),
+                ESQueryCache.canonical(QueryBuilders.termsQuery("_id", "3", "1", "2")));
+    }
+
+    @Test
+    public void clauseKindMatters() {
+        assertNotEquals(ESQueryCache.canonical(QueryBuilders.boolQuery().must(QueryBuilders.termQuery("a", 1))),
+                ESQueryCache.canonical(QueryBuilders.boolQuery().should(QueryBuilders.termQuery("a", 1))));
+    }
+
+    @Test
+    public void sortOrderMatters() {
+        assertNotEquals(ESQueryCache.canonical(Arrays.asList(SortBuilders.fieldSort("a"), SortBuilders.fieldSort("b"))),
+                ESQueryCache.canonical(Arrays.asList(SortBuilders.fieldSort("b"), SortBuilders.fieldSort("a"))));
+        assertNotEquals(ESQueryCache.canonical(SortBuilders.fieldSort("a").order(SortOrder.ASC)),
+                ESQueryCache.canonical(SortBuilders.fieldSort("a").order(SortOrder.DESC)));
+    }
+
+    @Test
+    public void nullParts() {
+        assertEquals("null|null|", ESQueryCache.canonical(null, null));
+        //位置不同的null不会混淆
+        assertNotEquals(ESQueryCache.canonical("customer", null, 10), ESQueryCache.canonical("customer", 10, null));
+    }
+
+    @Test
+    public void invalidateIndexDropsResults() throws Exception {
+        ESQueryCache cache = new ESQueryCache();
+        cache.init();
+        AtomicInteger loads = new AtomicInteger();
+        String query = ESQueryCache.canonical(QueryBuilders.matchAllQuery());
+        cache.get("customer", query, () -> Collections.singletonList("v" + loads.incrementAndGet()), ESQueryCache::weigh);
+        assertEquals(Collections.singletonList("v1"), cache.get("customer", query, () -> Collections.singletonList("v" + loads.incrementAndGet()), ESQueryCache::weigh));
+        cache.invalidateIndex("other");
+        assertEquals(1, loads.get());
+        cache.invalidateIndex("customer");
+        assertEquals(Collections.singletonList("v2"), cache.get("customer", query, () -> Collections.singletonList("v" + loads.incrementAndGet()), ESQueryCache::weigh));
+    }
+}
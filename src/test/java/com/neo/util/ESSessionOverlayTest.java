@@ -0,0 +1,39 @@
+package com.neo.util;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ESSessionOverlayTest {
+
+    @Test
+    public void mergeIsRecursiveLikePartialUpdate() {
+        ESSessionOverlay overlay = new ESSessionOverlay(60000);
+        Map<String, Object> address = new HashMap<>();
+        address.put("city", "北京");
+        address.put("zip", "100000");
+        Map<String, Object> source = new HashMap<>();
+        source.put("name", "neo");
+        source.put("address", address);
+        overlay.put("customer", "doc", "1", source);
+
+        overlay.merge("customer", "doc", "1", Collections.singletonMap("address", Collections.singletonMap("city", "西安")));
+
+        Map<?, ?> merged = (Map<?, ?>) overlay.get("customer", "doc", "1").get("address");
+        assertEquals("西安", merged.get("city"));
+        assertEquals("100000", merged.get("zip"));
+        assertEquals("北京", address.get("city"));
+    }
+
+    @Test
+    public void mergeWithoutFullDocumentIgnored() {
+        ESSessionOverlay overlay = new ESSessionOverlay(60000);
+        overlay.merge("customer", "doc", "1", Collections.singletonMap("name", "neo"));
+        assertNull(overlay.get("customer", "doc", "1"));
+    }
+}
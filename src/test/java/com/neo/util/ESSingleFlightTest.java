@@ -0,0 +1,141 @@
+package com.neo.util;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ESSingleFlightTest {
+
+    private static final int WAITERS = 4;
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(WAITERS + 1);
+
+    @After
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    @Test
+    public void waitersShareResult() throws Exception {
+        ESSingleFlight singleFlight = new ESSingleFlight();
+        Object result = new Object();
+        AtomicInteger calls = new AtomicInteger();
+        List<Future<Object>> futures = runConcurrently(singleFlight, () -> {
+            calls.incrementAndGet();
+            return result;
+        });
+        for (Future<Object> future : futures) {
+            assertSame(result, future.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, singleFlight.getExecuted());
+        assertEquals(WAITERS, singleFlight.getCollapsed());
+    }
+
+    @Test
+    public void waitersShareException() throws Exception {
+        ESSingleFlight singleFlight = new ESSingleFlight();
+        IllegalStateException failure = new IllegalStateException("search failed");
+        List<Future<Object>> futures = runConcurrently(singleFlight, () -> {
+            throw failure;
+        });
+        for (Future<Object> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertSame(failure, e.getCause());
+            }
+        }
+    }
+
+    @Test
+    public void waitersReleasedOnError() throws Exception {
+        ESSingleFlight singleFlight = new ESSingleFlight();
+        List<Future<Object>> futures = runConcurrently(singleFlight, () -> {
+            throw new AssertionError("boom");
+        });
+        for (Future<Object> future : futures) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                //执行方直接抛出Error, 等待方得到包装后的异常
+                assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof AssertionError
+                        || e.getCause() instanceof ExecutionException && e.getCause().getCause() instanceof AssertionError);
+            }
+        }
+    }
+
+    @Test
+    public void resultNotCached() throws Exception {
+        ESSingleFlight singleFlight = new ESSingleFlight();
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals(1, (int) singleFlight.execute("q", calls::incrementAndGet));
+        assertEquals(2, (int) singleFlight.execute("q", calls::incrementAndGet));
+        assertEquals(0, singleFlight.getCollapsed());
+    }
+
+    @Test
+    public void waiterTimesOut() throws Exception {
+        ESSingleFlight singleFlight = new ESSingleFlight();
+        ReflectionTestUtils.setField(singleFlight, "waitTimeoutMs", 50L);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        Future<Object> leader = pool.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            return release.await(5, TimeUnit.SECONDS);
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        try {
+            singleFlight.execute("q", () -> true);
+            fail();
+        } catch (TimeoutException expected) {
+            //等待方不再无限阻塞
+        }
+        release.countDown();
+        assertEquals(true, leader.get(5, TimeUnit.SECONDS));
+    }
+
+    /**
+     * 第一个调用阻塞到其余调用都进入等待后才返回
+     */
+    private List<Future<Object>> runConcurrently(ESSingleFlight singleFlight, Callable<Object> call) throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        List<Future<Object>> futures = new ArrayList<>();
+        futures.add(pool.submit(() -> singleFlight.execute("q", () -> {
+            started.countDown();
+            assertTrue(release.await(5, TimeUnit.SECONDS));
+            return call.call();
+        })));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < WAITERS; i++) {
+            futures.add(pool.submit(() -> singleFlight.execute("q", call)));
+        }
+        long deadline = System.currentTimeMillis() + 5000;
+        while (singleFlight.getCollapsed() < WAITERS && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(WAITERS, singleFlight.getCollapsed());
+        release.countDown();
+        return futures;
+    }
+}
@@ -0,0 +1,37 @@
+package com.neo.util;
+
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.transport.NoNodeAvailableException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ESSlicedScrollTest {
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(2);
+
+    @After
+    public void tearDown() {
+        pool.shutdownNow();
+    }
+
+    @Test(timeout = 5000)
+    public void openFailureEndsIteration() {
+        ESSlicedScroll scroll = new ESSlicedScroll(pool, 3, 10, 3, slice -> {
+            throw new NoNodeAvailableException("none of the configured nodes are available");
+        });
+        try {
+            scroll.hasNext();
+            fail();
+        } catch (ElasticsearchException e) {
+            assertTrue(e.getCause() instanceof NoNodeAvailableException);
+        }
+        assertFalse(scroll.hasNext());
+    }
+}
@@ -0,0 +1,183 @@
+package com.neo.util;
+
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.bulk.BulkAction;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.PlainActionFuture;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.ElasticsearchClient;
+import org.elasticsearch.client.transport.TransportClient;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.shard.ShardId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ESUpdateBufferTest {
+
+    private final ESUtil esUtil = mock(ESUtil.class);
+
+    private final ESUpdateBuffer buffer = new ESUpdateBuffer();
+
+    //已写入的文档, 模拟ES的局部更新
+    private final Map<String, Map<String, Object>> stored = Collections.synchronizedMap(new HashMap<>());
+
+    //bulk执行时的回调, 在bulk返回前执行
+    private volatile Consumer<BulkRequest> onBulk = request -> {
+    };
+
+    //下一次bulk的所有条目返回429
+    private final AtomicBoolean rejectNext = new AtomicBoolean();
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() throws Exception {
+        ElasticsearchClient bulkClient = mock(ElasticsearchClient.class);
+        TransportClient client = mock(TransportClient.class);
+        when(esUtil.getClient()).thenReturn(client);
+        when(client.prepareBulk()).thenAnswer(invocation -> new BulkRequestBuilder(bulkClient, BulkAction.INSTANCE));
+        when(bulkClient.execute(eq(BulkAction.INSTANCE), any(BulkRequest.class))).thenAnswer(invocation -> {
+            BulkRequest request = invocation.getArgument(1);
+            onBulk.accept(request);
+            boolean reject = rejectNext.getAndSet(false);
+            List<BulkItemResponse> items = new ArrayList<>();
+            for (DocWriteRequest<?> item : request.requests()) {
+                UpdateRequest update = (UpdateRequest) item;
+                int position = items.size();
+                if (reject) {
+                    items.add(new BulkItemResponse(position, DocWriteRequest.OpType.UPDATE, new BulkItemResponse.Failure(
+                            update.index(), update.type(), update.id(), new EsRejectedExecutionException("rejected"))));
+                    continue;
+                }
+                stored.merge(update.id(), update.doc().sourceAsMap(), (left, right) -> {
+                    Map<String, Object> merged = new HashMap<>(left);
+                    ESUpdateBuffer.merge(merged, right);
+                    return merged;
+                });
+                items.add(new BulkItemResponse(position, DocWriteRequest.OpType.UPDATE, new UpdateResponse(
+                        new ShardId(update.index(), "_na_", 0), update.type(), update.id(), 1, DocWriteResponse.Result.UPDATED)));
+            }
+            PlainActionFuture<BulkResponse> future = PlainActionFuture.newFuture();
+            future.onResponse(new BulkResponse(items.toArray(new BulkItemResponse[0]), 1));
+            return future;
+        });
+        when(esUtil.searchMapById(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            Map<String, Object> source = stored.get(invocation.<String>getArgument(2));
+            return source == null ? null : new HashMap<>(source);
+        });
+        ReflectionTestUtils.setField(buffer, "esUtil", esUtil);
+        ReflectionTestUtils.setField(buffer, "flushIntervalMs", TimeUnit.HOURS.toMillis(1));
+        buffer.init();
+    }
+
+    @After
+    public void tearDown() {
+        buffer.close();
+    }
+
+    @Test
+    public void readDuringFlushSeesFields() throws Exception {
+        buffer.update("customer", "doc", "1", "a", 1);
+        //GET之前提交完成: 先读取缓冲再读取ES, 字段不会两处都看不到
+        when(esUtil.searchMapById(anyString(), anyString(), anyString())).thenAnswer(invocation -> {
+            Map<String, Object> before = stored.get("1");
+            buffer.flush();
+            return before == null ? null : new HashMap<>(before);
+        });
+        assertEquals(1, buffer.searchMapById("customer", "doc", "1").get("a"));
+    }
+
+    @Test
+    public void readWhileInflightSeesFields() throws Exception {
+        buffer.update("customer", "doc", "1", "a", 1);
+        Map<String, Object> seen = new HashMap<>();
+        onBulk = request -> {
+            //bulk返回前的更新和读取
+            buffer.update("customer", "doc", "1", "b", 2);
+            try {
+                seen.putAll(buffer.searchMapById("customer", "doc", "1"));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        };
+        buffer.flush();
+        assertEquals(1, seen.get("a"));
+        assertEquals(2, seen.get("b"));
+    }
+
+    @Test
+    public void rejectedUpdateRequeuedUnderNewerFields() throws Exception {
+        buffer.update("customer", "doc", "1", "a", 1);
+        rejectNext.set(true);
+        onBulk = request -> buffer.update("customer", "doc", "1", "a", 2);
+        buffer.flush();
+        assertEquals(1, buffer.pendingSize());
+        onBulk = request -> {
+        };
+        buffer.flush();
+        assertEquals(0, buffer.pendingSize());
+        assertEquals(2, stored.get("1").get("a"));
+    }
+
+    @Test
+    public void concurrentUpdatesAllDelivered() throws Exception {
+        ReflectionTestUtils.setField(buffer, "maxPending", 2);
+        int threads = 8;
+        int perThread = 200;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            String field = "f" + t;
+            pool.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        buffer.update("customer", "doc", String.valueOf(i % 10), field, i);
+                        if (i % 50 == 0) {
+                            buffer.flush();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        start.countDown();
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        buffer.flush();
+        for (int id = 0; id < 10; id++) {
+            Map<String, Object> source = stored.get(String.valueOf(id));
+            for (int t = 0; t < threads; t++) {
+                //每个线程对该文档的最后一次写入
+                assertEquals(perThread - 10 + id, source.get("f" + t));
+            }
+        }
+    }
+}